@@ -0,0 +1,138 @@
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * The size of the arena of a game and the number of bikes in it, the spots the human players leave are taken by AIs.
+ * The bikes start spread along the four borders, so each border must be long enough for its share of them.
+ * A client asks for one when joining a game, it plays in a lobby of that arena.
+ * @author Johan & Luther
+ */
+public class ArenaConfig implements Serializable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    static final long serialVersionUID = 201610180004L;
+
+    // The arena the game was made for
+    public static final ArenaConfig DEFAULT = new ArenaConfig(100, 100, 4);
+    // Largest side of an arena, its cells are addressed by unsigned shorts and a grid must stay packable
+    public static final int MAX_SIZE = 4096;
+
+    // The width of the arena
+    private final int width;
+    // The height of the arena
+    private final int height;
+    // The number of bikes in the arena
+    private final int nbrOfPlayers;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates an arena configuration
+     * @param width The width of the arena
+     * @param height The height of the arena
+     * @param nbrOfPlayers The number of bikes in the arena
+     * @throws IllegalArgumentException If the bikes do not fit along the borders of the arena
+     */
+    public ArenaConfig(int width, int height, int nbrOfPlayers){
+        if(nbrOfPlayers < 2 || nbrOfPlayers > GridFrame.MAX_CELL_VALUE){
+            throw new IllegalArgumentException("Between 2 and " + GridFrame.MAX_CELL_VALUE + " players, not " + nbrOfPlayers);
+        }
+        // A border starts (n+3)/4 bikes, with a free cell around each of them
+        int minSize = 2 * ((nbrOfPlayers + 3) / 4) + 1;
+        if(Math.min(width, height) < minSize || Math.max(width, height) > MAX_SIZE){
+            throw new IllegalArgumentException("The arena of " + nbrOfPlayers + " players is between " + minSize
+                    + " and " + MAX_SIZE + " cells wide, not " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.nbrOfPlayers = nbrOfPlayers;
+    }
+
+    /**
+     * Reads an arena written like 100x100:4
+     * @param text The arena as text
+     * @return The arena
+     * @throws IllegalArgumentException If the text isn't an arena, or a valid one
+     */
+    public static ArenaConfig parse(String text){
+        String[] sizeAndPlayers = text.trim().split(":");
+        String[] size = sizeAndPlayers[0].split("x");
+        if(sizeAndPlayers.length != 2 || size.length != 2){
+            throw new IllegalArgumentException("An arena is written like 100x100:4, not " + text);
+        }
+        return new ArenaConfig(Integer.parseInt(size[0]), Integer.parseInt(size[1]), Integer.parseInt(sizeAndPlayers[1]));
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the width of the arena
+     * @return The width of the arena
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the arena
+     * @return The height of the arena
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bikes in the arena
+     * @return The number of bikes in the arena
+     */
+    public int getNbrOfPlayers() {
+        return nbrOfPlayers;
+    }
+
+    /**
+     * Returns the arena as text, like 100x100:4
+     * @return The arena as text
+     */
+    @Override
+    public String toString() {
+        return width + "x" + height + ":" + nbrOfPlayers;
+    }
+
+    /**
+     * Returns whether another arena has the same size and number of bikes
+     * @param other The other arena
+     * @return Whether both arenas are the same
+     */
+    @Override
+    public boolean equals(Object other){
+        if(!(other instanceof ArenaConfig))
+            return false;
+        ArenaConfig arena = (ArenaConfig) other;
+        return width == arena.width && height == arena.height && nbrOfPlayers == arena.nbrOfPlayers;
+    }
+
+    /**
+     * Returns the hash code of the arena
+     * @return The hash code of the arena
+     */
+    @Override
+    public int hashCode(){
+        return (width * 31 + height) * 31 + nbrOfPlayers;
+    }
+
+    /**
+     * Checks an arena received from a client like one created here
+     * @return The checked arena
+     * @throws ObjectStreamException Never, the constructor throws an IllegalArgumentException for an invalid arena
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return new ArenaConfig(width, height, nbrOfPlayers);
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predicts the bike of the player on the client, so that a turn shows up as soon as the key is pressed
+ * instead of one round trip later.
+ * The prediction starts from the authoritative state carried by the last frame and moves the bike forward
+ * for the ticks elapsed since, in the direction of the last turn the server hasn't applied yet.
+ * Each new frame reconciles the prediction: the predicted cells are dropped and rebuilt from the frame.
+ * @author Johan & Luther
+ */
+public class ClientPredictor {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Number of ticks the prediction can run ahead of the last frame
+    private static final int MAX_LEAD_TICKS = 10;
+    // Time after which a turn the server didn't apply is considered lost
+    private static final long MAX_PENDING_MILLIS = 1000;
+
+    // The grid drawn from the frames, only read here
+    private final int[][] grid;
+    // The part of the grid holding the view of the arena, the rest is out of it
+    private int width;
+    private int height;
+
+    // The number of the player in the current game (0 if none)
+    private int playerNumber = 0;
+    // The bike of the player according to the last frame
+    private int x;
+    private int y;
+    private char direction = ' ';
+    private boolean alive = false;
+    // The tick of the last frame and when it was received
+    private long frameTick;
+    private long frameTime;
+    // When tick 0 happens in the client clock (0 if unknown)
+    private long startTime = 0;
+
+    // The last turn the server hasn't applied yet (' ' if none), when it was made and the tick it is meant for
+    private char pendingDirection = ' ';
+    private long pendingTime;
+    private long pendingTick = -1;
+    // The predicted cells ahead of the bike of the last frame, as (x, y) pairs
+    private final List<int[]> path = new ArrayList<>();
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a predictor
+     * @param grid The grid drawn from the frames
+     */
+    public ClientPredictor(int[][] grid){
+        this.grid = grid;
+        this.width = grid.length;
+        this.height = grid[0].length;
+    }
+
+    //============================
+    //=== PREDICTION FUNCTIONS ===
+    //============================
+
+    /**
+     * Forgets the current game
+     */
+    public synchronized void reset(){
+        playerNumber = 0;
+        alive = false;
+        direction = ' ';
+        pendingDirection = ' ';
+        pendingTick = -1;
+        startTime = 0;
+        path.clear();
+    }
+
+    /**
+     * Sets the size of the view of the arena held by the grid, the bike can't be predicted out of it
+     * @param width The width of the view
+     * @param height The height of the view
+     */
+    public synchronized void setViewSize(int width, int height){
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets when the game starts, so the prediction follows the ticks of the server
+     * @param startTime When tick 0 happens in the client clock
+     */
+    public synchronized void setStartTime(long startTime){
+        this.startTime = startTime;
+    }
+
+    /**
+     * Starts the prediction over from the state of a frame, once the frame is applied to the grid
+     * @param playerNumber The number of the player in the game
+     * @param tick The tick of the frame
+     * @param bikes The bikes of the frame as (x, y, direction, alive) quadruples
+     */
+    public synchronized void reconcile(int playerNumber, long tick, int[] bikes){
+        path.clear();
+        this.playerNumber = playerNumber;
+        int k = (playerNumber - 1) * 4;
+        if(playerNumber <= 0 || k + 3 >= bikes.length){
+            alive = false;
+            return;
+        }
+        x = bikes[k];
+        y = bikes[k+1];
+        direction = (char) bikes[k+2];
+        alive = bikes[k+3] != 0;
+        frameTick = tick;
+        frameTime = System.currentTimeMillis();
+
+        // The turn was applied by the server, or got lost
+        if(direction == pendingDirection || frameTime - pendingTime > MAX_PENDING_MILLIS){
+            pendingDirection = ' ';
+        }
+        // A turn the server hasn't applied yet takes effect on its next tick
+        if(pendingDirection != ' '){
+            step();
+        }
+    }
+
+    /**
+     * Turns the bike and moves it one cell in the new direction right away
+     * @param newDirection The new direction
+     * @return Whether the turn is possible (the bike is alive and doesn't go back on itself)
+     */
+    public synchronized boolean turn(char newDirection){
+        char currentDirection = getDirection();
+        if(!alive || newDirection == currentDirection || newDirection == opposite(currentDirection)){
+            return false;
+        }
+        pendingDirection = newDirection;
+        pendingTime = System.currentTimeMillis();
+        // The turn happens on the tick following the one on the screen
+        pendingTick = frameTick + path.size();
+        step();
+        return true;
+    }
+
+    /**
+     * Moves the bike forward up to the tick the server is at, or for the ticks elapsed since the last frame
+     * if the start of the game is unknown
+     * Called on every tick of the client
+     * @return Whether the predicted path changed
+     */
+    public synchronized boolean advance(){
+        if(!alive){
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long leadTicks = startTime > 0 ? (now - startTime) / Core.TICK_MILLIS - frameTick
+                : (now - frameTime) / Core.TICK_MILLIS;
+        leadTicks = Math.min(leadTicks, MAX_LEAD_TICKS);
+        boolean moved = false;
+        while(path.size() < leadTicks && step()){
+            moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Moves the predicted bike one cell forward, unless it would crash
+     * A crash is never predicted, only the server decides
+     * @return Whether the bike moved
+     */
+    private boolean step(){
+        int[] head = path.isEmpty() ? new int[]{x, y} : path.get(path.size() - 1);
+        int nextX = head[0];
+        int nextY = head[1];
+        switch (getDirection()){
+            case 'L' : nextX--; break;
+            case 'R' : nextX++; break;
+            case 'U' : nextY--; break;
+            case 'D' : nextY++; break;
+            default : return false;
+        }
+        if(nextX < 0 || nextY < 0 || nextX >= width || nextY >= height || grid[nextX][nextY] != 0){
+            return false;
+        }
+        for(int[] cell : path){
+            if(cell[0] == nextX && cell[1] == nextY){
+                return false;
+            }
+        }
+        path.add(new int[]{nextX, nextY});
+        return true;
+    }
+
+    /**
+     * Returns the opposite of a direction
+     * @param direction The direction
+     * @return The opposite direction (' ' if none)
+     */
+    private static char opposite(char direction){
+        switch (direction){
+            case 'L' : return 'R';
+            case 'R' : return 'L';
+            case 'U' : return 'D';
+            case 'D' : return 'U';
+            default : return ' ';
+        }
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the predicted direction of the bike
+     * @return The predicted direction of the bike
+     */
+    public synchronized char getDirection(){
+        return pendingDirection != ' ' ? pendingDirection : direction;
+    }
+
+    /**
+     * Returns the tick the last turn is meant for, the tick on the screen when the key was pressed
+     * @return The tick the last turn is meant for (-1 if none)
+     */
+    public synchronized long getTurnTick(){
+        return playerNumber > 0 ? pendingTick : -1;
+    }
+
+    /**
+     * Returns whether the bike is alive according to the last frame
+     * @return Whether the bike is alive according to the last frame
+     */
+    public synchronized boolean isAlive(){
+        return alive;
+    }
+
+    /**
+     * Returns the number of the player in the current game
+     * @return The number of the player in the current game (0 if none)
+     */
+    public synchronized int getPlayerNumber(){
+        return playerNumber;
+    }
+
+    /**
+     * Returns the predicted cells ahead of the bike of the last frame
+     * @return The predicted cells as (x, y) pairs
+     */
+    public synchronized List<int[]> getPath(){
+        return new ArrayList<>(path);
+    }
+}
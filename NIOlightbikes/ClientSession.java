@@ -1,23 +1,69 @@
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
 /**
  * Groups the client ID, the account and the stub of a client/player
  * Also keeps track of the gameLobby in which the client plays
+ * and owns the queue of the callbacks waiting to be delivered to the client
  * @author Johan & Luther
  */
 public class ClientSession {
 
+    /**
+     * A callback waiting to be delivered to the client
+     */
+    public interface OutboundMessage {
+        void send(IClient client) throws RemoteException;
+    }
+
     //=================
     //=== VARIABLES ===
     //=================
 
     // Connection failure vars
     private static final int MAX_CONNECTION_FAILURES = 4;
-    private int connectionFailures;
+    private volatile int connectionFailures;
+    // When the client was last heard from or reached, in ms
+    private volatile long lastSeen;
+    // When the client was suspended after losing its connection, in ms (0 if not suspended)
+    private volatile long suspendedSince = 0;
+
+    // Outbound vars
+    private static final int MAX_OUTBOUND_MESSAGES = 64;
+    private static final long MAX_FRAME_BACKLOG_MILLIS = 5000;
+    private final OutboundWriter writer;
+    private final Queue<OutboundMessage> outbound = new ArrayDeque<>();
+    // Only the latest game frame is kept
+    private OutboundMessage pendingFrame;
+    // When the oldest undelivered frame was queued (0 if none)
+    private long pendingFrameSince = 0;
+    private boolean draining = false;
+    private boolean closed = false;
+
+    // Frame rate vars
+    private static final int MAX_FRAME_INTERVAL = 10; //2 frames per second
+    private static final double RTT_SMOOTHING = 0.125;
+    // Smoothed time taken to deliver a frame, in ms (0 if none delivered yet)
+    private double frameRtt = 0;
+    // Number of ticks between two frames sent to the client
+    private int frameInterval = 1;
+    // Tick of the last frame queued (-1 if none)
+    private long lastFrameTick = -1;
 
     // Client vars
-    private IClient client;
+    private volatile IClient client;
     private long clientID;
+    // The secret the client shows to resume the session
+    private final long resumeToken;
     private Account account;
     private GameLobby gameLobby;
+    // The game lobby the client watches as a spectator
+    private volatile GameLobby watchedLobby;
+    // Last game tick acknowledged by the client (-1 if none)
+    private long ackTick;
+    // Sequence number of the last input received on the game channel
+    private int lastInputSequence = 0;
 
     //===================
     //=== CONSTRUCTOR ===
@@ -27,14 +73,20 @@ public class ClientSession {
      * Creates a new client gameLobby
      * @param client The
      * @param clientID
+     * @param resumeToken The secret the client shows to resume the session
      * @param account
+     * @param writer The shared writer that delivers the queued callbacks
      */
-    public ClientSession(IClient client, long clientID, Account account){
+    public ClientSession(IClient client, long clientID, long resumeToken, Account account, OutboundWriter writer){
+        this.writer = writer;
+        this.resumeToken = resumeToken;
         setClient(client);
         setClientID(clientID);
         setAccount(account);
         this.account.setOnline(true);
         resetConnectionFailures();
+        markSeen();
+        setAckTick(-1);
     }
 
     //============================
@@ -55,6 +107,70 @@ public class ClientSession {
         this.connectionFailures = 0;
     }
 
+    /**
+     * Records that the client was just heard from or reached
+     */
+    public void markSeen(){
+        this.lastSeen = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns whether the client wasn't heard from nor reached for a while
+     * @param idleMillis The time without traffic after which the client is idle, in ms
+     * @return Whether the client is idle
+     */
+    public boolean isIdle(long idleMillis){
+        return System.currentTimeMillis() - lastSeen >= idleMillis;
+    }
+
+    /**
+     * Suspends the session of a client that lost its connection
+     * The session keeps its lobby and its player, the callbacks are dropped until the client resumes
+     */
+    public synchronized void suspend(){
+        if(suspendedSince == 0){
+            suspendedSince = System.currentTimeMillis();
+        }
+        outbound.clear();
+        pendingFrame = null;
+        pendingFrameSince = 0;
+    }
+
+    /**
+     * Resumes a suspended session, the client starts over from a keyframe
+     * @param client The stub of the client, which may have changed with the new connection
+     */
+    public synchronized void resume(IClient client){
+        setClient(client);
+        suspendedSince = 0;
+        resetConnectionFailures();
+        markSeen();
+        setAckTick(-1);
+        // The new connection is measured from scratch
+        frameRtt = 0;
+        frameInterval = 1;
+        lastFrameTick = -1;
+        // The input sequence isn't reset, the datagrams sent before are still signed with the same resume token
+    }
+
+    /**
+     * Returns whether the session is suspended
+     * @return Whether the session is suspended
+     */
+    public boolean isSuspended(){
+        return suspendedSince != 0;
+    }
+
+    /**
+     * Returns whether the session was suspended for longer than the grace window
+     * @param graceMillis The time a suspended session can be resumed, in ms
+     * @return Whether the session can't be resumed anymore
+     */
+    public boolean isResumeExpired(long graceMillis){
+        long since = suspendedSince;
+        return since != 0 && System.currentTimeMillis() - since >= graceMillis;
+    }
+
     /**
      * Returns whether there were more connection failures that allowed
      * @return Whether there were more connection failures that allowed
@@ -63,12 +179,229 @@ public class ClientSession {
         return this.connectionFailures >= MAX_CONNECTION_FAILURES;
     }
 
+    //==========================
+    //=== OUTBOUND FUNCTIONS ===
+    //==========================
+
+    /**
+     * Queues a callback for the client
+     * @param message The callback
+     * Dropped while the session is suspended
+     * @return False if the client has too many undelivered callbacks and should be disconnected
+     */
+    public synchronized boolean offer(OutboundMessage message){
+        if(closed || isSuspended()){
+            return true;
+        }
+        if(outbound.size() >= MAX_OUTBOUND_MESSAGES){
+            return false;
+        }
+        outbound.add(message);
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Queues a game frame for the client, replacing the one that wasn't delivered yet if any
+     * Frames that come sooner than the client's frame interval are skipped,
+     * the next frame carries the changes of the skipped ticks
+     * Dropped while the session is suspended, the client gets a keyframe when it resumes
+     * @param frame The callback delivering the frame
+     * @param tick The game tick of the frame
+     * @param force Whether the frame must be sent whatever the frame interval (e.g. the last frame of a game)
+     * @return False if the client hasn't taken a frame for too long and should be disconnected
+     */
+    public synchronized boolean offerFrame(OutboundMessage frame, long tick, boolean force){
+        if(closed || isSuspended()){
+            return true;
+        }
+        // A tick lower than the last one means a new game has started
+        if(!force && lastFrameTick >= 0 && tick >= lastFrameTick && tick - lastFrameTick < frameInterval){
+            return true;
+        }
+        lastFrameTick = tick;
+        long now = System.currentTimeMillis();
+        if(pendingFrameSince == 0){
+            pendingFrameSince = now;
+        }
+        else if(now - pendingFrameSince > MAX_FRAME_BACKLOG_MILLIS){
+            return false;
+        }
+        pendingFrame = frame;
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Hands the session over to the writer unless it is already being drained
+     */
+    private void scheduleDrain(){
+        if(!draining){
+            draining = true;
+            writer.schedule(this);
+        }
+    }
+
+    /**
+     * Delivers the queued callbacks, the other callbacks first and then the latest frame
+     * Only called by the writer
+     */
+    void drain(){
+        boolean released = false;
+        try {
+            while(true){
+                OutboundMessage message;
+                boolean isFrame = false;
+                synchronized (this) {
+                    message = outbound.poll();
+                    if(message == null && pendingFrame != null){
+                        message = pendingFrame;
+                        pendingFrame = null;
+                        isFrame = true;
+                    }
+                    if(message == null || closed || isSuspended()){
+                        draining = false;
+                        released = true;
+                        return;
+                    }
+                }
+                deliver(message, isFrame);
+            }
+        } finally {
+            // Another drain may have been scheduled once this one let go
+            if(!released){
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers a callback to the client
+     * A failed delivery counts as a connection failure, and the session is suspended once the client is declared dead
+     * @param message The callback
+     * @param isFrame Whether the callback is a game frame
+     */
+    private void deliver(OutboundMessage message, boolean isFrame){
+        long start = System.nanoTime();
+        try {
+            message.send(client);
+        } catch (RemoteException | RuntimeException e) {
+            deliveryFailed(e);
+            return;
+        }
+        synchronized (this) {
+            // A delivered callback proves the client is there, a queued one doesn't
+            if(!(client instanceof IQueuedClient)){
+                markSeen();
+                resetConnectionFailures();
+            }
+            if(isFrame){
+                // The frame was delivered, a frame queued meanwhile starts a new backlog
+                pendingFrameSince = pendingFrame != null ? System.currentTimeMillis() : 0;
+                double deliveryMillis = (System.nanoTime() - start) / 1000000.0;
+                int queuedFrames = 0;
+                if(client instanceof IQueuedClient){
+                    // The call only queued the frame, the transport knows how long frames wait to be written
+                    IQueuedClient queuedClient = (IQueuedClient) client;
+                    deliveryMillis = queuedClient.getFrameDelay();
+                    queuedFrames = queuedClient.getQueuedFrames();
+                }
+                adaptFrameInterval(deliveryMillis, queuedFrames);
+            }
+        }
+    }
+
+    /**
+     * Counts a failed delivery, the frame backlog keeps growing until a frame gets through
+     * @param e The reason of the failure
+     */
+    private synchronized void deliveryFailed(Exception e){
+        incrementConnectionFailures();
+        // Only the first failure in a row is logged, frames are sent many times per second
+        if(connectionFailures == 1){
+            System.out.println(account.getLogin() + " is unreachable: " + e.getMessage());
+        }
+        if(isDeclaredDead() && !isSuspended()){
+            System.out.println(account.getLogin() + " is declared dead, his session is suspended");
+            suspend();
+        }
+    }
+
+    /**
+     * Updates the frame interval after a frame was delivered
+     * Backs off at once when the client falls behind, and speeds up again one tick at a time
+     * @param deliveryMillis The time taken to deliver the frame
+     * @param queuedFrames The frames the transport didn't write yet, the delivered one included
+     */
+    private void adaptFrameInterval(double deliveryMillis, int queuedFrames){
+        frameRtt = frameRtt == 0 ? deliveryMillis : frameRtt + RTT_SMOOTHING * (deliveryMillis - frameRtt);
+        int targetInterval = 1 + (int) (frameRtt / Core.TICK_MILLIS);
+        // Callbacks queued while the frame was delivered, or earlier frames still unwritten, mean the client can't keep up
+        if(pendingFrame != null || !outbound.isEmpty() || queuedFrames > 1){
+            targetInterval++;
+        }
+        targetInterval = Math.min(targetInterval, MAX_FRAME_INTERVAL);
+        frameInterval = targetInterval > frameInterval ? targetInterval : Math.max(frameInterval - 1, targetInterval);
+    }
+
+    /**
+     * Returns the number of ticks between two frames sent to the client
+     * @return The number of ticks between two frames sent to the client
+     */
+    public synchronized int getFrameInterval(){
+        return frameInterval;
+    }
+
+    /**
+     * Returns the smoothed time taken to deliver a frame to the client
+     * @return The smoothed time taken to deliver a frame, in ms (0 if none delivered yet)
+     */
+    public synchronized double getFrameRtt(){
+        return frameRtt;
+    }
+
+    /**
+     * Drops the undelivered callbacks and refuses new ones
+     */
+    public synchronized void close(){
+        closed = true;
+        outbound.clear();
+        pendingFrame = null;
+    }
+
+    /**
+     * Returns the number of undelivered callbacks
+     * @return The number of undelivered callbacks
+     */
+    public synchronized int getOutboundBacklog(){
+        return outbound.size() + (pendingFrame != null ? 1 : 0);
+    }
+
+    //=======================
+    //=== INPUT FUNCTIONS ===
+    //=======================
+
+    /**
+     * Checks whether an input of the game channel is new, the inputs are repeated in several datagrams
+     * @param sequence The sequence number of the input
+     * @return Whether the input wasn't received before
+     */
+    public synchronized boolean acceptInput(int sequence){
+        if(sequence <= lastInputSequence){
+            return false;
+        }
+        lastInputSequence = sequence;
+        return true;
+    }
+
     //============================
     //=== GAME LOBBY FUNCTIONS ===
     //============================
 
     /**
-     * Leaves the current game lobby
+     * Leaves the current game lobby, as a player or as a spectator
      */
     public void leaveGameLobby(){
         if(this.gameLobby != null){
@@ -76,6 +409,32 @@ public class ClientSession {
             this.gameLobby.leave(clientID);
             this.gameLobby = null;
         }
+        GameLobby watched = this.watchedLobby;
+        if(watched != null){
+            System.out.println(account.getLogin() + " stops watching gameLobby " + watched.getLobbyID());
+            watched.getSpectatorRelay().unwatch(this);
+            this.watchedLobby = null;
+        }
+    }
+
+    /**
+     * Watches the games of a lobby as a spectator
+     * @param watchedLobby The game lobby to watch
+     */
+    public void watchGameLobby(GameLobby watchedLobby){
+        this.watchedLobby = watchedLobby;
+        watchedLobby.getSpectatorRelay().watch(this);
+    }
+
+    /**
+     * Forgets the watched lobby once its relay dropped the session, unless the client watches another lobby already
+     * @param relay The relay that dropped the session
+     */
+    public synchronized void watchStopped(SpectatorRelay relay){
+        GameLobby watched = this.watchedLobby;
+        if(watched != null && watched.getSpectatorRelay() == relay){
+            this.watchedLobby = null;
+        }
     }
 
     //=========================
@@ -98,6 +457,14 @@ public class ClientSession {
         this.client = client;
     }
 
+    /**
+     * Returns the secret the client shows to resume the session
+     * @return The resume token
+     */
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
     /**
      * Returns the client ID
      * @return The client ID
@@ -144,5 +511,23 @@ public class ClientSession {
      */
     public void setGameLobby(GameLobby gameLobby) {
         this.gameLobby = gameLobby;
+        // A new game means the client has to start over from a keyframe
+        setAckTick(-1);
+    }
+
+    /**
+     * Returns the last game tick acknowledged by the client
+     * @return The last game tick acknowledged by the client (-1 if none)
+     */
+    public long getAckTick() {
+        return ackTick;
+    }
+
+    /**
+     * Sets the last game tick acknowledged by the client
+     * @param ackTick The last game tick acknowledged by the client (-1 if none)
+     */
+    public void setAckTick(long ackTick) {
+        this.ackTick = ackTick;
     }
 }
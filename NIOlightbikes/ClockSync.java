@@ -0,0 +1,75 @@
+import java.rmi.RemoteException;
+
+/**
+ * Estimates the offset between the server clock and the client clock, NTP style.
+ * The server time is asked a few times and the sample with the shortest round trip is kept,
+ * as it is the one where the server time was read the closest to the middle of the round trip.
+ * @author Johan & Luther
+ */
+public class ClockSync {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Number of samples taken
+    private static final int SAMPLES = 8;
+
+    // Server time minus client time, in ms
+    private long offset = 0;
+    // Round trip of the kept sample, in ms (-1 if not synchronized)
+    private long rtt = -1;
+
+    //======================
+    //=== SYNC FUNCTIONS ===
+    //======================
+
+    /**
+     * Estimates the offset with the server clock
+     * @param server The server stub
+     * @throws RemoteException
+     */
+    public synchronized void sync(IServer server) throws RemoteException {
+        for(int i = 0; i < SAMPLES; i++){
+            long sent = System.currentTimeMillis();
+            long serverTime = server.getServerTime();
+            long received = System.currentTimeMillis();
+            long sampleRtt = received - sent;
+            // The server read its clock around the middle of the round trip
+            if(rtt < 0 || sampleRtt < rtt){
+                rtt = sampleRtt;
+                offset = serverTime - (sent + sampleRtt / 2);
+            }
+        }
+        System.out.println("Clock offset with the server: " + offset + "ms (round trip " + rtt + "ms)");
+    }
+
+    /**
+     * Converts a server time to the client clock
+     * @param serverTime The server time, in ms
+     * @return The same instant in the client clock, in ms
+     */
+    public synchronized long toLocalTime(long serverTime){
+        return serverTime - offset;
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the offset between the server clock and the client clock
+     * @return The server time minus the client time, in ms
+     */
+    public synchronized long getOffset(){
+        return offset;
+    }
+
+    /**
+     * Returns the round trip of the kept sample
+     * @return The round trip of the kept sample, in ms (-1 if not synchronized)
+     */
+    public synchronized long getRtt(){
+        return rtt;
+    }
+}
@@ -1,5 +1,8 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -13,8 +16,18 @@ public class Core {
     //=== VARIABLES ===
     //=================
 
-    private static final int AVAILABLE_SPOTS = 4;
+    public static final int TICK_MILLIS = 50; //Duration of a game tick
+    private static final int DELTA_LOG_SIZE = 40; //Number of ticks kept to build delta frames (2 seconds)
+    private static final int KEYFRAME_INTERVAL = 20; //Ticks between two keyframes (1 second), within the delta log
+    private static final int REWIND_TICKS = 6; //Number of ticks a late input can go back (300ms)
+    private static final int MAX_CATCH_UP_TICKS = 10; //Late ticks played at once at most (500ms), the game is pushed back by the others
+    public static final int VIEW_SIZE = 100; //Cells shown on the screen of a client, a larger arena is sent by views
+    private static final int VIEW_MARGIN = 20; //A bike closer than this to the edge of its view moves the view
+    private static final int MINIMAP_SIZE = 25; //Minimap cells along the longest side of the arena
+    private static final int MINIMAP_INTERVAL = 20; //Ticks between two minimaps (1 second)
+    private static final String[] PLAYER_NAMES = {"RED", "BLUE", "YELLOW", "GREEN"}; //Names of the first bikes, by their color
     private List<Player> players;
+    private final int nbrOfPlayers; //Number of bikes in the arena, the spots left by the humans are taken by AIs
 
     private int runTime = 0; //Number of "game ticks"
     private int gameRunTime = 0; //Unused. Used to make a sync every X game ticks
@@ -22,23 +35,59 @@ public class Core {
     private String sWinnerName = "NOBODY"; //Current winner of the game
     private boolean bGameQuit = false;
 
-    private int[][] iGrid = new int[100][100]; //Inner grid representation (0 = empty, any = player id)
-    private int[][] iTimer = new int[100][100]; //Memorizes the "freshness" of paths, for AI to use.
+    private final GameGrid grid; //Inner grid representation (0 = empty, any = player id) and
+                                                         //"freshness" of paths for AI to use, stored flat
+    private List<List<TrailSegment>> trails = new ArrayList<>(); //Trail of each player, a segment per straight line
+
+    private long currentTick = 0; //Number of simulated ticks, identifies the frames sent to the clients
+    private LinkedList<int[]> deltaLog = new LinkedList<>(); //Cells written during each of the last ticks
+    private GridFrame keyframe; //Packed grid of the latest keyframe, the delta log goes back to it (null = to be taken)
+    private long keyframeTick = -1; //Tick of the latest keyframe
+    private HashMap<FrameKey, GameFrame> frameCache = new HashMap<>(); //Frames of the current tick, by acknowledged tick and view
+    private long frameCacheTick = -1; //Tick of the cached frames
+    private ITickListener tickListener; //Told about every tick that changed the game
+    private int[] viewX; //Position in the arena of the view following each bike
+    private int[] viewY;
+    private long[] viewSinceTick; //Tick since which each view is where it is
+    private GridFrame minimap; //Minimap of the current tick (null = to be drawn)
+    private long minimapTick = -1; //Tick of the minimap
+    private long startTime = 0; //Time at which tick 0 happens, tick n happens TICK_MILLIS * n later (0 = when started)
+    private long scheduledTicks = 0; //Number of ticks whose time has come, played or not
+    private final TickMetrics metrics = new TickMetrics(); //How the game loop kept up with the ticks
+
+    private LinkedList<TickRecord> history = new LinkedList<>(); //State of the bikes before each of the last ticks
+    private List<PendingInput> pendingInputs = new ArrayList<>(); //Direction inputs waiting for their tick
+    private long invalidFromTick = -1; //The ticks after this one and up to the next one were replayed,
+    private long invalidToTick = -1;   //the clients that saw them need a keyframe
 
     //===================
     //=== CONSTRUCTOR ===
     //===================
 
     /**
-     * Creates a new game core
+     * Creates a new game core in the default arena
      * @param humanPlayers The human players that will participate in this game
      */
     public Core(Collection<HumanPlayer> humanPlayers){
+        this(humanPlayers, ArenaConfig.DEFAULT);
+    }
+
+    /**
+     * Creates a new game core
+     * @param humanPlayers The human players that will participate in this game
+     * @param arena The size of the arena and the number of bikes in it
+     */
+    public Core(Collection<HumanPlayer> humanPlayers, ArenaConfig arena){
         // Get the human players
         players = new ArrayList<>(humanPlayers);
+        nbrOfPlayers = arena.getNbrOfPlayers();
+        grid = new GameGrid(arena.getWidth(), arena.getHeight());
+        viewX = new int[nbrOfPlayers];
+        viewY = new int[nbrOfPlayers];
+        viewSinceTick = new long[nbrOfPlayers];
 
         // Fill the remaining spots with ai
-        int emptySpots = AVAILABLE_SPOTS - players.size();
+        int emptySpots = nbrOfPlayers - players.size();
         for(int i=emptySpots; i > 0; i--){
             IAI ai;
             switch (i){
@@ -56,6 +105,9 @@ public class Core {
         }
 
         // Reset everything
+        for(int i = 0; i < nbrOfPlayers; i++){
+            trails.add(new ArrayList<>());
+        }
         newGrid();
 
         //Initialization
@@ -74,143 +126,435 @@ public class Core {
     //======================
 
     /**
-     * Starts the game
+     * Plays the ticks whose time has come, called by the game loop scheduler on each tick of its timeline
+     * The ticks follow the start time, so that the clients know when each tick happens, whatever the time taken
+     * to play them. When more than one tick is due, the loop overran and the policy decides what to do.
+     * @param now The current time in ms
+     * @param policy What to do with the late ticks
      */
-    public void runGame()
+    public void stepUntil(long now, OverrunPolicy policy)
     {
-        // Till the game is over
-        while(!bGameQuit)
+        if(startTime == 0)
+            startTime = now;
+        //Increase a game tick (one tick = 50ms; game plays at about 20fps)
+        long dueTicks = (now - startTime) / TICK_MILLIS - scheduledTicks;
+        if(bGameQuit || dueTicks <= 0)
+            return;
+        metrics.recordWakeUp(now - (startTime + (scheduledTicks + 1) * TICK_MILLIS));
+        if(dueTicks > 1)
         {
-            try
-            {
-                //Increase a game tick (one tick = 50ms; game plays at about 20fps)
-                Thread.sleep(50);
-                runTime++;
-                gameRunTime++;
+            //The game is pushed back by the late ticks it doesn't play now, the clients' prediction is ahead until the next frame
+            //Catching up is bounded, a loop short of CPU would otherwise fall further behind with every tick
+            long playedTicks = policy == OverrunPolicy.SLOW ? 1 : Math.min(dueTicks, MAX_CATCH_UP_TICKS + 1);
+            metrics.recordOverrun(policy, playedTicks - 1, dueTicks - playedTicks);
+            startTime += (dueTicks - playedTicks) * TICK_MILLIS;
+            dueTicks = playedTicks;
+        }
+        for(long n = 1; n <= dueTicks && !bGameQuit; n++)
+        {
+            scheduledTicks++;
+            boolean played = step();
+            metrics.recordTick();
+            //When skipping, only the last frame is sent, the delta since each client's tick covers the others
+            if(played && tickListener != null && (policy != OverrunPolicy.SKIP || n == dueTicks || bGameQuit))
+                tickListener.tickCompleted(this);
+        }
+    }
+
+    /**
+     * Plays one game tick
+     * @return Whether the game changed during this tick
+     */
+    private synchronized boolean step()
+    {
+        boolean played = false;
+        runTime++;
+        gameRunTime++;
+        
+        //If any player is still "alive"
+        if(gameRunTime%gameMaxRunTime == 0 && isGameInProgress())
+        {
+        	  //unused, don't bother
+            gameMaxRunTime = 1;
+            if(gameMaxRunTime < 1)
+                gameMaxRunTime = 1;
                 
-                //If any player is still "alive"
-                if(gameRunTime%gameMaxRunTime == 0 && isGameInProgress())
-                {
-                	  //unused, don't bother
-                    gameMaxRunTime = 1;
-                    if(gameMaxRunTime < 1)
-                        gameMaxRunTime = 1;
-                        
-                    //Update the freshness of paths (0 = quite old path)
-                    for(int i = 0; i < 100; i++)
-                    {
-                        for(int j = 0; j < 100; j++)
-                        {
-                            if(iTimer[i][j] > 0)
-                                iTimer[i][j]--;
-                        }
-                    }
+            //Apply the inputs due for this tick, rewinding for the late ones
+            applyInputs();
+
+            playTick(null);
+            played = true;
+        }
+        
+        //Update the score of the player if it's been 1 second (20 fps) since the last updateGame
+        if(runTime == 20)
+        {
+            runTime = 0;
+            for(Player player : players){
+                if(player instanceof HumanPlayer && player.isAlive()){
+                    ((HumanPlayer) player).incrementScore();
+                }
+            }
+        }
+        return played;
+    }
 
-                    Player winner = null;
-                    int survivors = 0;
+    /**
+     * Moves every bike one cell, ends the game if there is only one bike left and logs the written cells
+     * @param replayDirections The directions of the bikes when the tick is replayed, or null to ask the AIs
+     */
+    private void playTick(char[] replayDirections)
+    {
+        //The freshness of the paths read by the AIs follows the tick, replayed or not (0 = quite old path)
+        grid.setCurrentTick(currentTick);
 
-                    //Update position of each player
-                    for(int i = 0; i < AVAILABLE_SPOTS; i++)
-                    {
-                        Player player = players.get(i);
-                        int x = player.getIxCarPos();
-                        int y = player.getIyCarPos();
-
-                        //If this AI is still in play
-                        if(player instanceof AIPlayer && player.isAlive())
-                        {
-                            //Request a decision from the AI
-                            IAI ai = ((AIPlayer) player).getAi();
-                            player.setcCarDir(ai.getNewDir(player.getcCarDir(),x, y, iGrid, iTimer));
+        Player winner = null;
+        int survivors = 0;
+
+        //Cells written during this tick, as (x, y, player id) triples
+        int[] delta = new int[nbrOfPlayers * 3];
+        int deltaSize = 0;
+
+        //The state of the bikes before the tick, to rewind to it
+        TickRecord record = new TickRecord(players, trails, viewX, viewY, viewSinceTick);
+
+        //Update position of each player
+        for(int i = 0; i < nbrOfPlayers; i++)
+        {
+            Player player = players.get(i);
+            int x = player.getIxCarPos();
+            int y = player.getIyCarPos();
+
+            //If the tick is replayed, the directions are the recorded ones
+            if(replayDirections != null)
+            {
+                if(player.isAlive())
+                    player.setcCarDir(replayDirections[i]);
+            }
+            //If this AI is still in play
+            else if(player instanceof AIPlayer && player.isAlive())
+            {
+                //Request a decision from the AI
+                IAI ai = ((AIPlayer) player).getAi();
+                player.setcCarDir(ai.getNewDir(player.getcCarDir(),x, y, grid));
+            }
+            record.directions[i] = player.getcCarDir();
+
+            //If the player is still in play
+            if(player.isAlive())
+            {
+                //Update its position based on the previous position and the current direction
+                //If we hit the wall or the path of any player, it's game over
+                switch(player.getcCarDir())
+                {
+                    case 'L' :
+                        if(isFree(x-1, y)) {
+                            player.decrementIxCarPos();
                         }
-                        
-                        //If the player is still in play
-                        if(player.isAlive())
-                        {
-                            //Update its position based on the previous position and the current direction
-                            //If we hit the wall or the path of any player, it's game over
-                            switch(player.getcCarDir())
-                            {
-                                case 'L' :
-                                    if(x > 0 && iGrid[x-1][y] == 0) {
-                                        player.decrementIxCarPos();
-                                    }
-                                    else {
-                                        player.setAlive(false);
-                                    }
-                                    break;
-                                case 'R' :
-                                    if(x < 99 && iGrid[x+1][y] == 0) {
-                                        player.incrementIxCarPos();
-                                    }
-                                    else {
-                                        player.setAlive(false);
-                                    }
-                                    break;
-                                case 'U' :
-                                    if(y > 0 && iGrid[x][y-1] == 0) {
-                                        player.decrementIyCarPos();
-                                    }
-                                    else {
-                                        player.setAlive(false);
-                                    }
-                                    break;
-                                case 'D' :
-                                    if(y < 99 && iGrid[x][y+1] == 0) {
-                                        player.incrementIyCarPos();
-                                    }
-                                    else {
-                                        player.setAlive(false);
-                                    }
-                                    break;
-                            }
-
-                            // Apply changes
-                            x = player.getIxCarPos();
-                            y = player.getIyCarPos();
-                            
-                            //This particular tile is now no longer available
-                            iGrid[x][y] = (i+1);
-                            
-                            //This tile gets a freshness of 10
-                            iTimer[x][y] = 10;
+                        else {
+                            player.setAlive(false);
                         }
-
-                        // Check who is still alive
-                        if(player.isAlive()){
-                            winner = player;
-                            survivors++;
+                        break;
+                    case 'R' :
+                        if(isFree(x+1, y)) {
+                            player.incrementIxCarPos();
                         }
-                    }
-
-                    //If "highlander" (there's only one left), this one wins, and the current game ends.
-                    if(survivors == 1){
-                        sWinnerName = winner.getsName();
-                        winner.setAlive(false);
-                        bGameQuit = true;
-                    }
-                    else if(survivors == 0){
-                        bGameQuit = true;
-                    }
+                        else {
+                            player.setAlive(false);
+                        }
+                        break;
+                    case 'U' :
+                        if(isFree(x, y-1)) {
+                            player.decrementIyCarPos();
+                        }
+                        else {
+                            player.setAlive(false);
+                        }
+                        break;
+                    case 'D' :
+                        if(isFree(x, y+1)) {
+                            player.incrementIyCarPos();
+                        }
+                        else {
+                            player.setAlive(false);
+                        }
+                        break;
+                }
 
+                // Apply changes
+                if(x != player.getIxCarPos() || y != player.getIyCarPos())
+                {
+                    x = player.getIxCarPos();
+                    y = player.getIyCarPos();
+                    extendTrail(i, x, y, player.getcCarDir());
                 }
-                
-                //Update the score of the player if it's been 1 second (20 fps) since the last updateGame
-                if(runTime == 20)
+
+                //This particular tile is now no longer available
+                if(grid.getCell(x, y) != (i+1))
                 {
-                    runTime = 0;
-                    for(Player player : players){
-                        if(player instanceof HumanPlayer && player.isAlive()){
-                            ((HumanPlayer) player).incrementScore();
-                        }
-                    }
+                    delta[deltaSize++] = x;
+                    delta[deltaSize++] = y;
+                    delta[deltaSize++] = (i+1);
                 }
+                //This tile is stamped with the tick, its freshness is 10 for now and fades with the next ticks
+                grid.writeCell(x, y, i+1, currentTick);
+            }
 
+            // Check who is still alive
+            if(player.isAlive()){
+                winner = player;
+                survivors++;
             }
-            catch(Exception e) {
-                System.out.println("Exception in Core " + e.getMessage());
+        }
+
+        //If "highlander" (there's only one left), this one wins, and the current game ends.
+        if(survivors == 1){
+            sWinnerName = winner.getsName();
+            winner.setAlive(false);
+            bGameQuit = true;
+        }
+        else if(survivors == 0){
+            bGameQuit = true;
+        }
+
+        //Keep track of the written cells for the delta frames, and of the tick for the rewinds
+        currentTick++;
+        for(int i = 0; i < nbrOfPlayers; i++)
+            updateView(i);
+        deltaLog.addLast(Arrays.copyOf(delta, deltaSize));
+        if(deltaLog.size() > DELTA_LOG_SIZE)
+            deltaLog.removeFirst();
+        if(keyframe == null || currentTick - keyframeTick >= KEYFRAME_INTERVAL)
+            takeKeyframe();
+        history.addLast(record);
+        if(history.size() > REWIND_TICKS)
+            history.removeFirst();
+    }
+
+    /**
+     * Returns whether a cell is in the arena and out of every trail
+     * The grid holds the same cells as the trail segments, it is looked up instead of going through every segment
+     * @param x The x of the cell
+     * @param y The y of the cell
+     * @return Whether a bike can move to the cell
+     */
+    private boolean isFree(int x, int y)
+    {
+        if(x < 0 || x >= grid.getWidth() || y < 0 || y >= grid.getHeight())
+            return false;
+        return grid.getCell(x, y) == 0;
+    }
+
+    /**
+     * Adds the cell a bike moved to at the end of its trail, a turn starts a new segment
+     * @param index The index of the player
+     * @param x The x of the cell
+     * @param y The y of the cell
+     * @param direction The direction the bike moved in
+     */
+    private void extendTrail(int index, int x, int y, char direction)
+    {
+        List<TrailSegment> trail = trails.get(index);
+        TrailSegment last = trail.get(trail.size() - 1);
+        if(last.isContinuedBy(x, y, direction))
+            trail.set(trail.size() - 1, last.extendedTo(x, y));
+        else
+            trail.add(new TrailSegment(index + 1, x, y, x, y, direction));
+    }
+
+    /**
+     * Centers the view of a player on its bike again when the bike gets close to the edge of the view
+     * The view only moves now and then, the client gets deltas in between
+     * @param index The index of the player
+     */
+    private void updateView(int index)
+    {
+        Player player = players.get(index);
+        int x = viewX[index];
+        int y = viewY[index];
+        if(player.getIxCarPos() < x + VIEW_MARGIN || player.getIxCarPos() >= x + getViewWidth() - VIEW_MARGIN)
+            x = centerView(player.getIxCarPos(), grid.getWidth(), getViewWidth());
+        if(player.getIyCarPos() < y + VIEW_MARGIN || player.getIyCarPos() >= y + getViewHeight() - VIEW_MARGIN)
+            y = centerView(player.getIyCarPos(), grid.getHeight(), getViewHeight());
+        if(x != viewX[index] || y != viewY[index])
+        {
+            viewX[index] = x;
+            viewY[index] = y;
+            viewSinceTick[index] = currentTick;
+        }
+    }
+
+    /**
+     * Returns the position of a view centered on a cell, kept inside the arena
+     * @param position The position of the cell along a side of the arena
+     * @param arenaSize The size of the arena along that side
+     * @param viewSize The size of the view along that side
+     * @return The position of the view along that side
+     */
+    private static int centerView(int position, int arenaSize, int viewSize)
+    {
+        return Math.max(0, Math.min(arenaSize - viewSize, position - viewSize / 2));
+    }
+
+    /**
+     * Queues a direction input for the tick the player saw when he turned
+     * @param player The player
+     * @param direction The new direction
+     * @param tick The tick seen by the player (-1 if unknown)
+     */
+    public synchronized void queueInput(Player player, char direction, long tick)
+    {
+        pendingInputs.add(new PendingInput(player, direction, tick));
+    }
+
+    /**
+     * Applies the inputs due for the current tick
+     * An input stamped with a past tick still in the rewind window is applied to that tick and the game is replayed
+     * from there, an older one is applied now. An input stamped too far in the future is also applied now.
+     */
+    private void applyInputs()
+    {
+        List<PendingInput> inputs = new ArrayList<>(pendingInputs);
+        List<PendingInput> dueInputs = new ArrayList<>();
+        pendingInputs.clear();
+        for(PendingInput input : inputs)
+        {
+            long tick = input.tick;
+            if(tick > currentTick + REWIND_TICKS || tick < currentTick - history.size())
+                tick = currentTick;
+            if(tick > currentTick)
+                pendingInputs.add(input);
+            else if(tick < currentTick && !bGameQuit)
+                rewind(input.player, input.direction, tick);
+            else
+                dueInputs.add(input);
+        }
+        //A rewind restores the directions, so the inputs of this tick come last
+        for(PendingInput input : dueInputs)
+        {
+            if(input.player.isAlive())
+                input.player.setcCarDir(input.direction);
+        }
+    }
+
+    /**
+     * Takes the game back to a past tick, applies a late input and replays the ticks played since
+     * The other bikes keep the directions they had, so only the late player's bike changes its path
+     * @param player The late player
+     * @param direction The new direction
+     * @param tick The tick the input was meant for, in the rewind window
+     */
+    private void rewind(Player player, char direction, long tick)
+    {
+        int ticks = (int) (currentTick - tick);
+        int index = players.indexOf(player);
+        List<TickRecord> replayed = new ArrayList<>(history.subList(history.size() - ticks, history.size()));
+        TickRecord first = replayed.get(0);
+        //Nothing to replay if the bike was already going that way
+        if(direction == first.directions[index])
+            return;
+        //An input of a dead player or reversing the bike isn't replayed, it is applied now as it used to
+        if(!first.alive[index] || isReverse(direction, first.directions[index]))
+        {
+            if(player.isAlive())
+                player.setcCarDir(direction);
+            return;
+        }
+
+        //Undo the cells written since the tick, they were all empty before
+        for(int n = 0; n < ticks; n++)
+        {
+            int[] delta = deltaLog.removeLast();
+            for(int k = 0; k < delta.length; k += 3)
+            {
+                grid.clearCell(delta[k], delta[k+1]);
             }
+            history.removeLast();
+        }
+        first.restore(players, trails, viewX, viewY, viewSinceTick);
+        long rewoundTick = currentTick;
+        currentTick = tick;
+        //A keyframe of a replayed tick is retaken during the replay
+        if(keyframeTick > tick)
+            keyframe = null;
+
+        //Replay the ticks with the late direction, the player's later turns are replayed too
+        char playerDirection = direction;
+        for(int n = 0; n < ticks && !bGameQuit; n++)
+        {
+            char[] directions = replayed.get(n).directions.clone();
+            if(n > 0 && directions[index] != replayed.get(n-1).directions[index])
+                playerDirection = directions[index];
+            directions[index] = playerDirection;
+            playTick(directions);
         }
+
+        //The clients that saw one of the replayed ticks have to start over from a keyframe
+        frameCacheTick = -1;
+        minimap = null;
+        invalidFromTick = invalidToTick >= tick ? Math.min(invalidFromTick, tick) : tick;
+        invalidToTick = rewoundTick;
+    }
+
+    /**
+     * Returns whether a direction goes back on another one
+     * @param direction The new direction
+     * @param currentDirection The current direction
+     * @return Whether the new direction goes back on the current one
+     */
+    private static boolean isReverse(char direction, char currentDirection)
+    {
+        return (direction == 'L' && currentDirection == 'R') || (direction == 'R' && currentDirection == 'L')
+                || (direction == 'U' && currentDirection == 'D') || (direction == 'D' && currentDirection == 'U');
+    }
+
+    /**
+     * Returns the number of a player, which is also the id of its cells on the grid
+     * @param player The player
+     * @return The number of the player (0 if not in this game)
+     */
+    public int getPlayerNumber(Player player){
+        return players.indexOf(player) + 1;
+    }
+
+    /**
+     * Returns the number of simulated ticks
+     * @return The number of simulated ticks
+     */
+    public synchronized long getCurrentTick(){
+        return currentTick;
+    }
+
+    /**
+     * Returns the time at which tick 0 happens
+     * @return The time at which tick 0 happens, in ms (0 = when started)
+     */
+    public long getStartTime(){
+        return startTime;
+    }
+
+    /**
+     * Returns how the game loop kept up with the ticks
+     * @return The tick metrics of the game
+     */
+    public TickMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Sets the time at which tick 0 happens, before the game is run
+     * @param startTime The time at which tick 0 happens, in ms
+     */
+    public void setStartTime(long startTime){
+        this.startTime = startTime;
+    }
+
+    /**
+     * Sets the listener told about every tick that changed the game, right after the tick
+     * @param tickListener The listener
+     */
+    public void setTickListener(ITickListener tickListener){
+        this.tickListener = tickListener;
     }
 
     /**
@@ -225,59 +569,102 @@ public class Core {
      * @return Whether the game is still in progress
      */
     public boolean isGameInProgress(){
-        return !bGameQuit && (players.get(0).isAlive() || players.get(1).isAlive() ||
-                players.get(2).isAlive() || players.get(3).isAlive());
+        if(bGameQuit)
+            return false;
+        for(Player player : players){
+            if(player.isAlive())
+                return true;
+        }
+        return false;
     }
 
     /**
      * Resets everything
      */
-    public void newGrid()
+    public synchronized void newGrid()
     {
+        currentTick = 0;
+        deltaLog.clear();
+        keyframe = null;
+        keyframeTick = -1;
+        history.clear();
+        pendingInputs.clear();
+        invalidFromTick = -1;
+        invalidToTick = -1;
+        frameCache.clear();
+        frameCacheTick = -1;
+        minimap = null;
+        minimapTick = -1;
         gameRunTime = 0;
         gameMaxRunTime = 1;
-        for(int i = 0; i < 100; i++)
-        {
-            for (int j = 0; j < 100; j++)
-            {
-                iGrid[i][j] = 0;
-                iTimer[i][j] = 0;
-            }
-        }
+        grid.clear();
 
-        //Every player starts in the middle of a border segment
-        Player playerBottom = players.get(0);
-        playerBottom.setIxCarPos(50);
-        playerBottom.setIyCarPos(99);
-        playerBottom.setcCarDir('U');
-        playerBottom.setsName("RED");
-
-        Player playerLeft = players.get(1);
-        playerLeft.setIxCarPos(0);
-        playerLeft.setIyCarPos(50);
-        playerLeft.setcCarDir('R');
-        playerLeft.setsName("BLUE");
-
-        Player playerTop = players.get(2);
-        playerTop.setIxCarPos(50);
-        playerTop.setIyCarPos(0);
-        playerTop.setcCarDir('D');
-        playerTop.setsName("YELLOW");
-
-        Player playerRight = players.get(3);
-        playerRight.setIxCarPos(99);
-        playerRight.setIyCarPos(50);
-        playerRight.setcCarDir('L');
-        playerRight.setsName("GREEN");
-
-        for(int i = 0; i < 4; i++)
+        for(int i = 0; i < nbrOfPlayers; i++)
         {
             Player player = players.get(i);
+            spawn(player, i);
             int x = player.getIxCarPos();
             int y = player.getIyCarPos();
-            iGrid[x][y] = (i+1);
-            iTimer[x][y] = 10;
+            //As if written the tick before the first one
+            grid.writeCell(x, y, i+1, -1);
+            trails.get(i).clear();
+            trails.get(i).add(new TrailSegment(i+1, x, y, x, y, player.getcCarDir()));
+            viewX[i] = centerView(x, grid.getWidth(), getViewWidth());
+            viewY[i] = centerView(y, grid.getHeight(), getViewHeight());
+            viewSinceTick[i] = 0;
         }
+        takeKeyframe();
+    }
+
+    /**
+     * Puts a bike on its starting cell, the bikes take turns on the bottom, left, top and right borders
+     * and are spread evenly along each border, facing the inside of the arena
+     * With 4 bikes, each one starts in the middle of a border
+     * @param player The player
+     * @param index The index of the player
+     */
+    private void spawn(Player player, int index)
+    {
+        int border = index % 4;
+        int slot = index / 4;
+        //Number of bikes starting on this border
+        int nbrOnBorder = (nbrOfPlayers - border + 3) / 4;
+        int length = (border % 2 == 0) ? grid.getWidth() : grid.getHeight();
+        int position = (slot + 1) * length / (nbrOnBorder + 1);
+        switch(border)
+        {
+            case 0 :
+                player.setIxCarPos(position);
+                player.setIyCarPos(grid.getHeight() - 1);
+                player.setcCarDir('U');
+                break;
+            case 1 :
+                player.setIxCarPos(0);
+                player.setIyCarPos(position);
+                player.setcCarDir('R');
+                break;
+            case 2 :
+                player.setIxCarPos(position);
+                player.setIyCarPos(0);
+                player.setcCarDir('D');
+                break;
+            default :
+                player.setIxCarPos(grid.getWidth() - 1);
+                player.setIyCarPos(position);
+                player.setcCarDir('L');
+                break;
+        }
+        player.setsName(index < PLAYER_NAMES.length ? PLAYER_NAMES[index] : "BIKE " + (index + 1));
+    }
+
+    /**
+     * Packs the grid of the current tick, the clients that need a keyframe get it with the deltas since
+     * This way a keyframe is packed once per interval, however many clients resync
+     */
+    private void takeKeyframe()
+    {
+        keyframe = getSnapshot();
+        keyframeTick = currentTick;
     }
 
     //===============
@@ -293,12 +680,372 @@ public class Core {
     }
 
     /**
-     * Returns the representation of the grid
-     * @return The representation of the grid
+     * Returns a copy of the representation of the grid
+     * @return A copy of the representation of the grid, column after column
+     */
+    public synchronized int[][] getGrid()
+    {
+        return grid.toArray();
+    }
+
+    /**
+     * Returns a read-only view of the grid, as given to the AIs
+     * @return A view of the grid
+     */
+    public IGridView getGridView()
+    {
+        return grid;
+    }
+
+    /**
+     * Returns a snapshot of the grid, as trail segments or as packed cells whichever is smaller
+     * @return A snapshot of the grid
+     */
+    public synchronized GridFrame getSnapshot()
+    {
+        List<TrailSegment> segments = getTrails();
+        if(GridFrame.isSmallerAsSegments(grid.getWidth(), grid.getHeight(), segments.size(), nbrOfPlayers))
+            return new GridFrame(0, 0, grid.getWidth(), grid.getHeight(), segments);
+        return new GridFrame(grid);
+    }
+
+    /**
+     * Returns the trails of every player
+     * @return The trail segments, player after player
+     */
+    public synchronized List<TrailSegment> getTrails()
+    {
+        List<TrailSegment> segments = new ArrayList<>();
+        for(List<TrailSegment> trail : trails)
+            segments.addAll(trail);
+        return segments;
+    }
+
+    /**
+     * Returns the frame bringing a client without a bike, a spectator, from the given tick to the current one
+     * @param ackTick The last tick acknowledged by the client (-1 if none)
+     * @return The frame to send to the client
+     */
+    public GameFrame getFrameSince(long ackTick)
+    {
+        return getFrameSince(ackTick, 0);
+    }
+
+    /**
+     * Returns the frame bringing a client from the given tick to the current one.
+     * A keyframe is returned when the client has no tick yet or when the delta log doesn't go back that far:
+     * the latest keyframe and the cells written since, so a resync costs the same however long the game ran.
+     * Only the view of the client is sent: the region around its bike, or the middle of the arena without a bike.
+     * Frames are encoded once per tick and shared by every client that acknowledged the same tick with the same view.
+     * @param ackTick The last tick acknowledged by the client (-1 if none)
+     * @param playerNumber The number of the player of the client (0 if none)
+     * @return The frame to send to the client
+     */
+    public synchronized GameFrame getFrameSince(long ackTick, int playerNumber)
+    {
+        //The cached frames are only valid for the tick they were built for
+        if(frameCacheTick != currentTick)
+        {
+            frameCache.clear();
+            frameCacheTick = currentTick;
+        }
+
+        //The delta log only covers the ticks following the oldest logged base tick
+        long oldestBaseTick = currentTick - deltaLog.size();
+        if(ackTick < oldestBaseTick || ackTick > currentTick)
+            ackTick = -1;
+        //A client that saw a replayed tick doesn't have the same grid anymore
+        if(ackTick > invalidFromTick && ackTick <= invalidToTick)
+            ackTick = -1;
+
+        int index = playerNumber - 1;
+        int x = centerView(grid.getWidth() / 2, grid.getWidth(), getViewWidth());
+        int y = centerView(grid.getHeight() / 2, grid.getHeight(), getViewHeight());
+        if(index >= 0 && index < nbrOfPlayers)
+        {
+            x = viewX[index];
+            y = viewY[index];
+            //A client whose view moved doesn't have the cells that came into it
+            if(ackTick < viewSinceTick[index])
+                ackTick = -1;
+        }
+
+        FrameKey key = new FrameKey(ackTick, x, y);
+        GameFrame frame = frameCache.get(key);
+        if(frame == null)
+        {
+            frame = buildFrameSince(ackTick, x, y);
+            frameCache.put(key, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Builds the frame bringing a client from the given tick to the current one
+     * When the view is smaller than the arena, the minimap comes with the keyframes and then once per interval
+     * @param ackTick The last tick acknowledged by the client, covered by the delta log (-1 for a keyframe)
+     * @param x The x position of the view of the client
+     * @param y The y position of the view of the client
+     * @return The frame to send to the client
+     */
+    private GameFrame buildFrameSince(long ackTick, int x, int y)
+    {
+        int width = getViewWidth();
+        int height = getViewHeight();
+        GridFrame map = null;
+        if((width < grid.getWidth() || height < grid.getHeight())
+                && (ackTick < 0 || currentTick / MINIMAP_INTERVAL > ackTick / MINIMAP_INTERVAL))
+            map = getMinimap();
+
+        if(ackTick < 0)
+        {
+            if(keyframe == null)
+                takeKeyframe();
+            return GameFrame.keyframe(currentTick, keyframe.getRegion(x, y, width, height),
+                    getCellsIn(getCellsSince(keyframeTick), x, y), getBikes(), map, getMinimapScale());
+        }
+        return GameFrame.delta(ackTick, currentTick, getCellsIn(getCellsSince(ackTick), x, y), getBikes(),
+                map, getMinimapScale());
+    }
+
+    /**
+     * Returns the cells inside a view
+     * @param cells The cells as (x, y, player id) triples
+     * @param x The x position of the view
+     * @param y The y position of the view
+     * @return The cells inside the view as (x, y, player id) triples
+     */
+    private int[] getCellsIn(int[] cells, int x, int y)
+    {
+        if(getViewWidth() == grid.getWidth() && getViewHeight() == grid.getHeight())
+            return cells;
+        int[] inside = new int[cells.length];
+        int size = 0;
+        for(int k = 0; k < cells.length; k += 3)
+        {
+            if(cells[k] >= x && cells[k] < x + getViewWidth() && cells[k+1] >= y && cells[k+1] < y + getViewHeight())
+            {
+                inside[size++] = cells[k];
+                inside[size++] = cells[k+1];
+                inside[size++] = cells[k+2];
+            }
+        }
+        return Arrays.copyOf(inside, size);
+    }
+
+    /**
+     * Returns the minimap of the current tick, a minimap cell shows the player owning most of the cells it covers
+     * It is drawn once per tick, however many clients get it
+     * @return The minimap
      */
-    public int[][] getGrid()
+    private GridFrame getMinimap()
     {
-        return iGrid;
+        if(minimap == null || minimapTick != currentTick)
+        {
+            int scale = getMinimapScale();
+            int[][] cells = new int[(grid.getWidth() + scale - 1) / scale][(grid.getHeight() + scale - 1) / scale];
+            int[] counts = new int[nbrOfPlayers + 1];
+            for(int i = 0; i < cells.length; i++)
+            {
+                for(int j = 0; j < cells[i].length; j++)
+                {
+                    Arrays.fill(counts, 0);
+                    for(int x = i * scale; x < Math.min(grid.getWidth(), (i+1) * scale); x++)
+                    {
+                        for(int y = j * scale; y < Math.min(grid.getHeight(), (j+1) * scale); y++)
+                            counts[grid.getCell(x, y)]++;
+                    }
+                    for(int id = 1; id < counts.length; id++)
+                    {
+                        if(counts[id] > counts[cells[i][j]] || (cells[i][j] == 0 && counts[id] > 0))
+                            cells[i][j] = id;
+                    }
+                }
+            }
+            minimap = new GridFrame(cells);
+            minimapTick = currentTick;
+        }
+        return minimap;
     }
 
+    /**
+     * Returns the number of arena cells covered by a minimap cell, along each side
+     * @return The scale of the minimap
+     */
+    private int getMinimapScale()
+    {
+        return (Math.max(grid.getWidth(), grid.getHeight()) + MINIMAP_SIZE - 1) / MINIMAP_SIZE;
+    }
+
+    /**
+     * Returns the width of the view of a client, the whole arena if it fits on the screen
+     * @return The width of the view
+     */
+    private int getViewWidth()
+    {
+        return Math.min(VIEW_SIZE, grid.getWidth());
+    }
+
+    /**
+     * Returns the height of the view of a client, the whole arena if it fits on the screen
+     * @return The height of the view
+     */
+    private int getViewHeight()
+    {
+        return Math.min(VIEW_SIZE, grid.getHeight());
+    }
+
+    /**
+     * Returns the cells written since a tick
+     * @param baseTick The tick, covered by the delta log
+     * @return The cells written after the tick as (x, y, player id) triples
+     */
+    private int[] getCellsSince(long baseTick)
+    {
+        long oldestBaseTick = currentTick - deltaLog.size();
+
+        //Concatenate the cells written since the tick
+        int size = 0;
+        int skipped = (int) (baseTick - oldestBaseTick);
+        for(int[] delta : deltaLog.subList(skipped, deltaLog.size()))
+            size += delta.length;
+        int[] cells = new int[size];
+        int offset = 0;
+        for(int[] delta : deltaLog.subList(skipped, deltaLog.size()))
+        {
+            System.arraycopy(delta, 0, cells, offset, delta.length);
+            offset += delta.length;
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the state of the bikes, for the client side prediction
+     * @return The bikes as (x, y, direction, alive) quadruples, in player number order
+     */
+    private int[] getBikes()
+    {
+        int[] bikes = new int[nbrOfPlayers * 4];
+        for(int i = 0; i < nbrOfPlayers; i++)
+        {
+            Player player = players.get(i);
+            bikes[i*4] = player.getIxCarPos();
+            bikes[i*4+1] = player.getIyCarPos();
+            bikes[i*4+2] = player.getcCarDir();
+            bikes[i*4+3] = player.isAlive() ? 1 : 0;
+        }
+        return bikes;
+    }
+
+    //=====================
+    //=== INNER CLASSES ===
+    //=====================
+
+    /**
+     * A direction input waiting for its tick
+     */
+    private static class PendingInput {
+        private final Player player;
+        private final char direction;
+        private final long tick;
+
+        private PendingInput(Player player, char direction, long tick){
+            this.player = player;
+            this.direction = direction;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * The key of a cached frame: the tick acknowledged by the client and the position of its view
+     */
+    private static class FrameKey {
+        private final long ackTick;
+        private final int x;
+        private final int y;
+
+        private FrameKey(long ackTick, int x, int y){
+            this.ackTick = ackTick;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if(!(other instanceof FrameKey))
+                return false;
+            FrameKey key = (FrameKey) other;
+            return ackTick == key.ackTick && x == key.x && y == key.y;
+        }
+
+        @Override
+        public int hashCode(){
+            return (Long.hashCode(ackTick) * 31 + x) * 31 + y;
+        }
+    }
+
+    /**
+     * The state of the bikes, their trails and their views before a tick, and the directions they took during the tick
+     */
+    private static class TickRecord {
+        private final int[] x;
+        private final int[] y;
+        private final boolean[] alive;
+        private final char[] directions;
+        private final int[] trailSizes;
+        private final TrailSegment[] lastSegments; //A tick only extends or adds the last segment of a trail
+        private final int[] viewX;
+        private final int[] viewY;
+        private final long[] viewSinceTick;
+
+        /**
+         * Records the state of the bikes before a tick, the directions are filled during the tick
+         * @param players The players
+         * @param trails The trails of the players
+         * @param viewX The x positions of the views of the players
+         * @param viewY The y positions of the views of the players
+         * @param viewSinceTick The ticks since which the views are where they are
+         */
+        private TickRecord(List<Player> players, List<List<TrailSegment>> trails, int[] viewX, int[] viewY, long[] viewSinceTick){
+            this.viewX = viewX.clone();
+            this.viewY = viewY.clone();
+            this.viewSinceTick = viewSinceTick.clone();
+            x = new int[players.size()];
+            y = new int[players.size()];
+            alive = new boolean[players.size()];
+            directions = new char[players.size()];
+            trailSizes = new int[players.size()];
+            lastSegments = new TrailSegment[players.size()];
+            for(int i = 0; i < players.size(); i++){
+                x[i] = players.get(i).getIxCarPos();
+                y[i] = players.get(i).getIyCarPos();
+                alive[i] = players.get(i).isAlive();
+                List<TrailSegment> trail = trails.get(i);
+                trailSizes[i] = trail.size();
+                lastSegments[i] = trail.get(trail.size() - 1);
+            }
+        }
+
+        /**
+         * Puts the bikes, their trails and their views back in the recorded state
+         * @param players The players
+         * @param trails The trails of the players
+         * @param viewX The x positions of the views of the players
+         * @param viewY The y positions of the views of the players
+         * @param viewSinceTick The ticks since which the views are where they are
+         */
+        private void restore(List<Player> players, List<List<TrailSegment>> trails, int[] viewX, int[] viewY, long[] viewSinceTick){
+            System.arraycopy(this.viewX, 0, viewX, 0, viewX.length);
+            System.arraycopy(this.viewY, 0, viewY, 0, viewY.length);
+            System.arraycopy(this.viewSinceTick, 0, viewSinceTick, 0, viewSinceTick.length);
+            for(int i = 0; i < players.size(); i++){
+                players.get(i).setIxCarPos(x[i]);
+                players.get(i).setIyCarPos(y[i]);
+                players.get(i).setAlive(alive[i]);
+                List<TrailSegment> trail = trails.get(i);
+                trail.subList(trailSizes[i], trail.size()).clear();
+                trail.set(trailSizes[i] - 1, lastSegments[i]);
+            }
+        }
+    }
 }
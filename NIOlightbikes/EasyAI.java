@@ -12,11 +12,10 @@ public class EasyAI implements IAI {
       * @param cCarDir the current direction of the player (0=Up, 1=Right, 2=Down, 3=Left)
       * @param x the x position of the player on the grid (column; 0 = left)
       * @param y the y position of the player on the grid (line; 0 = top)
-      * @param iGrid a copy of the current grid representation
-      * @param iTimer a copy of the current freshness information
+      * @param grid a view of the current grid representation and freshness information
       * @return a character as a movement decision ('U', 'R', 'L', 'D').
       */
-     public char getNewDir(char cCarDir, int x, int y, int[][] iGrid, int[][] iTimer)
+     public char getNewDir(char cCarDir, int x, int y, IGridView grid)
      {
         //The returned character
         char rc;
@@ -51,17 +50,17 @@ public class EasyAI implements IAI {
             if(currentMove != (j+2)%4)
             {
                 //If this move leads to go over the border, we forbid it
-                if((y > 0 && j == 0) || (x < 99 && j == 1) || (y < 99 && j == 2) || (x > 0 && j == 3))
+                if((y > 0 && j == 0) || (x < grid.getWidth() - 1 && j == 1) || (y < grid.getHeight() - 1 && j == 2) || (x > 0 && j == 3))
                 {
                     //Get the next tile to reach after the move, and its freshness
                     int targetTile = 0;
                     int targetTimer = 0;
                     switch(j)
                     {
-                        case 0 : targetTile = iGrid[x][y-1]; targetTimer = iTimer[x][y-1]; break;
-                        case 1 : targetTile = iGrid[x+1][y]; targetTimer = iTimer[x+1][y];break;
-                        case 2 : targetTile = iGrid[x][y+1]; targetTimer = iTimer[x][y+1];break;
-                        case 3 : targetTile = iGrid[x-1][y]; targetTimer = iTimer[x-1][y];break;
+                        case 0 : targetTile = grid.getCell(x, y-1); targetTimer = grid.getFreshness(x, y-1); break;
+                        case 1 : targetTile = grid.getCell(x+1, y); targetTimer = grid.getFreshness(x+1, y);break;
+                        case 2 : targetTile = grid.getCell(x, y+1); targetTimer = grid.getFreshness(x, y+1);break;
+                        case 3 : targetTile = grid.getCell(x-1, y); targetTimer = grid.getFreshness(x-1, y);break;
                     }
                     
                     //If this tile is empty, we consider this as a valid move
@@ -2,6 +2,9 @@ import java.awt.*;
 import java.awt.image.*;
 import java.awt.event.*;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.*;
 
 /**
@@ -30,7 +33,25 @@ public class GUI extends javax.swing.JFrame {
     ImagePanel jpBoard;
 
     //Inner representation of the grid
-    private static int[][] iGrid = new int[100][100];
+    private static int[][] iGrid = new int[Core.VIEW_SIZE][Core.VIEW_SIZE];
+    //Last tick applied to the inner grid (-1 = waiting for a keyframe)
+    private long lastTick = -1;
+    //Position in the arena of the view held by the inner grid, the arena may be larger than the screen
+    private int viewX = 0;
+    private int viewY = 0;
+    //Size of the view, smaller than the inner grid when the whole arena is, and the size of its tiles in px
+    private int viewWidth = Core.VIEW_SIZE;
+    private int viewHeight = Core.VIEW_SIZE;
+    private int tileSize = 4;
+    //Low resolution map of the whole arena, drawn in a corner when the arena is larger than the screen (null = none)
+    private GridFrame minimap;
+    private int minimapScale;
+    //Predicts the bike of the player between the frames
+    private final ClientPredictor predictor = new ClientPredictor(iGrid);
+    //Predicted cells currently drawn over the grid
+    private List<int[]> predictedCells = new ArrayList<>();
+    //Guards the grid and the predicted cells, updated by the frames, the keys and the prediction timer
+    private final Object gridLock = new Object();
 
     private IClient client;
     private boolean goingSolo = false;
@@ -49,10 +70,12 @@ public class GUI extends javax.swing.JFrame {
         solo = new JRadioButton("Solo");
         solo.setSelected(true);
         multiplayer = new JRadioButton("multiplayer");
+        watch = new JRadioButton("watch");
 
         ButtonGroup optionPlay = new ButtonGroup();
         optionPlay.add(solo);
         optionPlay.add(multiplayer);
+        optionPlay.add(watch);
         initComponents();
 
         /* GENERATED BY NETBEANS 
@@ -85,6 +108,7 @@ public class GUI extends javax.swing.JFrame {
                         .addGap(208, 208, 208)
                             .addComponent(solo)
                             .addComponent(multiplayer)
+                            .addComponent(watch)
                             .addComponent(jButton1))
                     .addGroup(layout.createSequentialGroup()
                         .addContainerGap()
@@ -103,6 +127,7 @@ public class GUI extends javax.swing.JFrame {
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                         .addComponent(solo)
                         .addComponent(multiplayer)
+                        .addComponent(watch)
                     .addComponent(jLabel1)
                     .addComponent(jYourScore, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addGap(32, 32, 32)
@@ -127,6 +152,9 @@ public class GUI extends javax.swing.JFrame {
         g2.setColor(Color.BLACK);
         g2.fillRect(0, 0, 400, 400);
 
+        //Moves the predicted bike on every tick between the frames
+        new javax.swing.Timer(Core.TICK_MILLIS, evt -> refreshPrediction()).start();
+
         //Makes it visible and repainted
         jpBoard.setVisible(true);
         jpBoard.repaint();
@@ -144,11 +172,20 @@ public class GUI extends javax.swing.JFrame {
      */
     private void newGrid()
     {
-        for(int i = 0; i < 100; i++)
+        synchronized (gridLock)
         {
-            for (int j = 0; j < 100; j++)
+            lastTick = -1;
+            viewX = 0;
+            viewY = 0;
+            minimap = null;
+            predictor.reset();
+            predictedCells.clear();
+            for(int i = 0; i < iGrid.length; i++)
             {
-                iGrid[i][j] = 0;
+                for (int j = 0; j < iGrid[i].length; j++)
+                {
+                    iGrid[i][j] = 0;
+                }
             }
         }
     }
@@ -171,41 +208,38 @@ public class GUI extends javax.swing.JFrame {
      * This is where the grid is refreshed with the new one, given as argument
      * @param newGrid The new grid
      */
-    private void refreshGrid(int[][] newGrid)
+    private void refreshGrid(GridFrame newGrid)
     {
         boolean bChanged = false;
-        for (int i = 0; i < 100; i++)
+        //The grid holds the view of the client, which moves along with the bike
+        viewX = newGrid.getX();
+        viewY = newGrid.getY();
+        viewWidth = newGrid.getWidth();
+        viewHeight = newGrid.getHeight();
+        predictor.setViewSize(viewWidth, viewHeight);
+        //A small arena fills the board with larger tiles, everything is drawn again at the new size
+        int newTileSize = 400 / Math.max(viewWidth, viewHeight);
+        if(newTileSize != tileSize)
         {
-            for(int j = 0; j < 100; j++)
+            tileSize = newTileSize;
+            g2.setColor(Color.BLACK);
+            g2.fillRect(0, 0, 400, 400);
+            for(int[] column : iGrid)
+                Arrays.fill(column, 0);
+            bChanged = true;
+        }
+        for (int i = 0; i < iGrid.length; i++)
+        {
+            for(int j = 0; j < iGrid[i].length; j++)
             {
-                if(newGrid[i][j] != iGrid[i][j])
+                int playerID = 0;
+                if(i < viewWidth && j < viewHeight)
+                    playerID = newGrid.getCell(viewX + i, viewY + j);
+                if(playerID != iGrid[i][j])
                 {
                     //Detects when a tile has been changed
                     bChanged = true;
-                    iGrid[i][j] = newGrid[i][j];
-                    
-                    //Apply the color corresponding to the given player
-                    //One tile = 4x4 px
-                    if(newGrid[i][j] == 1)
-                    {
-                        g2.setColor(Color.RED);
-                        g2.fillRect(i*4, j*4, 4, 4);
-                    }
-                    else if(newGrid[i][j] == 2)
-                    {
-                        g2.setColor(Color.BLUE);
-                        g2.fillRect(i*4, j*4, 4, 4);
-                    }
-                    else if(newGrid[i][j] == 3)
-                    {
-                        g2.setColor(Color.YELLOW);
-                        g2.fillRect(i*4, j*4, 4, 4);
-                    }
-                    else if(newGrid[i][j] == 4)
-                    {
-                        g2.setColor(Color.GREEN);
-                        g2.fillRect(i*4, j*4, 4, 4);
-                    }
+                    paintTile(i, j, playerID);
                 }
             }
         }
@@ -215,20 +249,209 @@ public class GUI extends javax.swing.JFrame {
             this.repaint();
     }
 
+    /**
+     * This is where the cells written since the last applied tick are drawn
+     * @param cells The written cells as (x, y, player id) triples
+     */
+    private void applyDelta(int[] cells)
+    {
+        for(int k = 0; k < cells.length; k += 3)
+        {
+            int i = cells[k] - viewX;
+            int j = cells[k+1] - viewY;
+            if(i >= 0 && i < viewWidth && j >= 0 && j < viewHeight)
+                paintTile(i, j, cells[k+2]);
+        }
+
+        //Only repaint the frame when something has changed (efficiency)
+        if(cells.length > 0)
+            this.repaint();
+    }
+
+    /**
+     * Stores a tile in the inner grid and draws it
+     * @param i The x position of the tile
+     * @param j The y position of the tile
+     * @param playerID The id of the player owning the tile
+     */
+    private void paintTile(int i, int j, int playerID)
+    {
+        iGrid[i][j] = playerID;
+        drawTile(i, j, playerID);
+    }
+
+    /**
+     * Draws a tile without storing it in the inner grid
+     * @param i The x position of the tile
+     * @param j The y position of the tile
+     * @param playerID The id of the player owning the tile (0 = empty)
+     */
+    private void drawTile(int i, int j, int playerID)
+    {
+        //Apply the color corresponding to the given player
+        //One tile = 4x4 px, larger when the whole arena is smaller than the board
+        Color color = getPlayerColor(playerID);
+        if(color != null)
+        {
+            g2.setColor(color);
+            g2.fillRect(i*tileSize, j*tileSize, tileSize, tileSize);
+        }
+    }
+
+    /**
+     * Returns the color of a player
+     * The players after the first four get hues spread by the golden ratio, so that close ids get distinct colors
+     * @param playerID The id of the player (0 = empty)
+     * @return The color of the player (null if unknown)
+     */
+    private static Color getPlayerColor(int playerID)
+    {
+        switch(playerID)
+        {
+            case 0 : return Color.BLACK;
+            case 1 : return Color.RED;
+            case 2 : return Color.BLUE;
+            case 3 : return Color.YELLOW;
+            case 4 : return Color.GREEN;
+            default :
+                if(playerID < 0 || playerID > GridFrame.MAX_CELL_VALUE)
+                    return null;
+                return Color.getHSBColor((playerID * 0.618034f) % 1f, 0.75f, 1f);
+        }
+    }
+
+    /**
+     * Draws the minimap in the top right corner of the board, with the view outlined
+     */
+    private void drawMinimap()
+    {
+        if(minimap == null)
+            return;
+        //One minimap cell = 2x2 px
+        int left = 400 - minimap.getWidth() * 2;
+        g2.setColor(Color.BLACK);
+        g2.fillRect(left, 0, minimap.getWidth() * 2, minimap.getHeight() * 2);
+        for(int i = 0; i < minimap.getWidth(); i++)
+        {
+            for(int j = 0; j < minimap.getHeight(); j++)
+            {
+                Color color = getPlayerColor(minimap.getCell(i, j));
+                if(color != null && color != Color.BLACK)
+                {
+                    g2.setColor(color);
+                    g2.fillRect(left + i * 2, j * 2, 2, 2);
+                }
+            }
+        }
+        g2.setColor(Color.WHITE);
+        g2.drawRect(left + viewX * 2 / minimapScale, viewY * 2 / minimapScale,
+                viewWidth * 2 / minimapScale - 1, viewHeight * 2 / minimapScale - 1);
+    }
+
+    /**
+     * Moves the bikes of a frame from the arena to the view held by the inner grid
+     * @param bikes The bikes as (x, y, direction, alive) quadruples
+     * @return The bikes in the view
+     */
+    private int[] toView(int[] bikes)
+    {
+        int[] inView = bikes.clone();
+        for(int k = 0; k < inView.length; k += 4)
+        {
+            inView[k] -= viewX;
+            inView[k+1] -= viewY;
+        }
+        return inView;
+    }
+
+    /**
+     * Erases the predicted cells, the grid shows through again
+     */
+    private void erasePrediction()
+    {
+        for(int[] cell : predictedCells)
+            drawTile(cell[0], cell[1], iGrid[cell[0]][cell[1]]);
+        predictedCells.clear();
+    }
+
+    /**
+     * Draws the predicted cells of the player's bike over the grid
+     */
+    private void drawPrediction()
+    {
+        predictedCells = predictor.getPath();
+        int playerNumber = predictor.getPlayerNumber();
+        for(int[] cell : predictedCells)
+            drawTile(cell[0], cell[1], playerNumber);
+    }
+
+    /**
+     * Moves the predicted bike for the ticks elapsed since the last frame
+     */
+    private void refreshPrediction()
+    {
+        synchronized (gridLock)
+        {
+            if(!predictor.advance())
+                return;
+            erasePrediction();
+            drawPrediction();
+            drawMinimap();
+        }
+        this.repaint();
+    }
+
     /**
      * This method updates the frame
+     * @param playerNumber The number of the player in the game
      * @param score The current score of the player
-     * @param grid The new grid
+     * @param frame The keyframe or delta to apply to the grid
      * @param isGameOver Is the game over?
      * @param winnerName The name of the winner
+     * @return The last tick applied to the grid (-1 to ask for a keyframe)
      */
-    public void update(int score, int[][] grid, boolean isGameOver, String winnerName)
+    public long update(int playerNumber, int score, GameFrame frame, boolean isGameOver, String winnerName)
     {
         //Updates the score
         jYourScore.setText(score+"");
 
-        //Refresh the image
-        refreshGrid(grid);
+        synchronized (gridLock)
+        {
+            //The frame replaces the prediction
+            erasePrediction();
+
+            //Refresh the image
+            if(frame.isKeyframe())
+            {
+                refreshGrid(frame.getGrid());
+                applyDelta(frame.getCells());
+                lastTick = frame.getTick();
+            }
+            else if(frame.getBaseTick() == lastTick)
+            {
+                applyDelta(frame.getCells());
+                lastTick = frame.getTick();
+            }
+            else
+            {
+                //A gap was detected, the next frame has to be a keyframe
+                lastTick = -1;
+            }
+
+            //Predict again from the bike of the frame
+            if(lastTick >= 0)
+                predictor.reconcile(playerNumber, lastTick, toView(frame.getBikes()));
+            drawPrediction();
+
+            //The minimap comes now and then, it stays on screen in between
+            if(frame.getMinimap() != null)
+            {
+                minimap = frame.getMinimap();
+                minimapScale = frame.getMinimapScale();
+            }
+            drawMinimap();
+        }
+        this.repaint();
 
         //If the game is over, a message is displayed on screen with the name of the winner
         if(isGameOver)
@@ -245,6 +468,7 @@ public class GUI extends javax.swing.JFrame {
             // Show the winner dialog
             showWinnerDialog(winnerName, score);
         }
+        return lastTick;
     }
 
     //========================
@@ -289,8 +513,15 @@ public class GUI extends javax.swing.JFrame {
         newGrid();
 
         try {
-            // Tries to join a game
-            client.joinGame(goingSolo);
+            // Tries to watch a game in progress
+            if(watch.isSelected()){
+                if(!client.spectateGame()){
+                    JOptionPane.showMessageDialog(this, "No game in progress to watch");
+                }
+            } // Tries to join a game
+            else {
+                client.joinGame(goingSolo);
+            }
         }
         catch (RemoteException e) {
             showServerNotFoundDialog();
@@ -314,31 +545,30 @@ public class GUI extends javax.swing.JFrame {
 
     /**
      * A key has been pressed. If a game is in progress, we must warn the core
+     * The turn is predicted and drawn right away, the alive and direction checks are done locally
      * @param evt
      */
     private void formKeyPressed(java.awt.event.KeyEvent evt) {//GEN-FIRST:event_formKeyPressed
         // Try to change the direction of the line depending on the key being pressed
+        char newDir;
+        switch(evt.getKeyCode())
+        {
+            case KeyEvent.VK_LEFT : newDir = 'L'; break;
+            case KeyEvent.VK_RIGHT : newDir = 'R'; break;
+            case KeyEvent.VK_UP : newDir = 'U'; break;
+            case KeyEvent.VK_DOWN : newDir = 'D'; break;
+            default : return;
+        }
         try {
-            if(client.isPlayerAlive())
+            synchronized (gridLock)
             {
-                char currentDir = client.getCurrentDirection();
-                switch(evt.getKeyCode())
-                {
-                    case KeyEvent.VK_LEFT :
-                        if(currentDir != 'R') client.setCurrentDirection('L');
-                        break;
-                    case KeyEvent.VK_RIGHT :
-                        if(currentDir != 'L') client.setCurrentDirection('R');
-                        break;
-                    case KeyEvent.VK_UP :
-                        if(currentDir != 'D') client.setCurrentDirection('U');
-                        break;
-                    case KeyEvent.VK_DOWN :
-                        if(currentDir != 'U') client.setCurrentDirection('D');
-                        break;
-                    default : break;
-                }
+                if(!predictor.turn(newDir))
+                    return;
+                erasePrediction();
+                drawPrediction();
             }
+            this.repaint();
+            client.setCurrentDirection(newDir);
         } catch (RemoteException e) {
             showServerNotFoundDialog();
             System.out.println("Client error: " + e.getMessage());
@@ -428,6 +658,30 @@ public class GUI extends javax.swing.JFrame {
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
+    /**
+     * Returns the last tick applied to the grid
+     * @return The last tick applied to the grid (-1 = waiting for a keyframe)
+     */
+    public long getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * Sets when the game starts
+     * @param startTime When tick 0 happens in the client clock
+     */
+    public void setGameStart(long startTime) {
+        predictor.setStartTime(startTime);
+    }
+
+    /**
+     * Returns the tick the last turn is meant for, so the server can apply it on time
+     * @return The tick the last turn is meant for (-1 if none)
+     */
+    public long getTurnTick() {
+        return predictor.getTurnTick();
+    }
+
     public void setShowLoginGUI(String showLoginGUI) {
         ShowLoginGUI.setText(showLoginGUI);
     }
@@ -439,5 +693,6 @@ public class GUI extends javax.swing.JFrame {
     private javax.swing.JTextField jYourScore;
     private javax.swing.JRadioButton solo;
     private javax.swing.JRadioButton multiplayer;
+    private javax.swing.JRadioButton watch;
     // End of variables declaration//GEN-END:variables
 }
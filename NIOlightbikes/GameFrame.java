@@ -0,0 +1,302 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+
+/**
+ * A game frame sent by the server to a client. A frame is either a keyframe, holding the whole grid
+ * as of the latest periodic keyframe and the cells written since, or a delta, holding only the cells
+ * written since the last tick acknowledged by the client.
+ * Every frame also carries the state of the bikes at its tick, for the client side prediction.
+ * On an arena larger than the screen, the grid and the cells only cover the view of the client, and a frame
+ * may carry a low resolution minimap of the whole arena.
+ * A frame is immutable and encoded once when created, so the same frame can be sent to every
+ * client of a game without being encoded again.
+ * @author Johan & Luther
+ */
+public class GameFrame implements Externalizable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    static final long serialVersionUID = 201610180001L;
+
+    // Tick on top of which the frame has to be applied (-1 for a keyframe)
+    private long baseTick;
+    // Tick reached once the frame is applied
+    private long tick;
+    // The whole grid, as of a tick up to the tick of the frame (keyframes only)
+    private GridFrame grid;
+    // The cells written since the base tick or since the grid, as (x, y, player id) triples
+    private int[] cells;
+    // The bikes as (x, y, direction, alive) quadruples, in player number order
+    private int[] bikes;
+    // The whole arena at a low resolution, or null if the frame has no minimap
+    private GridFrame minimap;
+    // Number of arena cells covered by a minimap cell, along each side
+    private int minimapScale;
+    // The encoded frame, as sent on the wire
+    private byte[] encoded;
+
+    //====================
+    //=== CONSTRUCTORS ===
+    //====================
+
+    /**
+     * Creates an empty game frame, only used by the deserialization
+     */
+    public GameFrame(){
+    }
+
+    /**
+     * Creates a new game frame
+     * @param baseTick The tick on top of which the frame has to be applied (-1 for a keyframe)
+     * @param tick The tick reached once the frame is applied
+     * @param grid The whole grid, or null for a delta
+     * @param cells The written cells as (x, y, player id) triples
+     * @param bikes The bikes as (x, y, direction, alive) quadruples
+     * @param minimap The minimap, or null
+     * @param minimapScale The number of arena cells covered by a minimap cell, along each side
+     */
+    private GameFrame(long baseTick, long tick, GridFrame grid, int[] cells, int[] bikes, GridFrame minimap, int minimapScale){
+        this.baseTick = baseTick;
+        this.tick = tick;
+        this.grid = grid;
+        this.cells = cells;
+        this.bikes = bikes;
+        this.minimap = minimap;
+        this.minimapScale = minimapScale;
+        this.encoded = encode();
+    }
+
+    /**
+     * Creates a keyframe
+     * @param tick The tick reached once the keyframe is applied
+     * @param grid The packed grid, of the tick or of an earlier one
+     * @param cells The cells written between the grid and the tick as (x, y, player id) triples
+     * @param bikes The bikes as (x, y, direction, alive) quadruples
+     * @param minimap The minimap, or null
+     * @param minimapScale The number of arena cells covered by a minimap cell, along each side
+     * @return The keyframe
+     */
+    public static GameFrame keyframe(long tick, GridFrame grid, int[] cells, int[] bikes, GridFrame minimap, int minimapScale){
+        return new GameFrame(-1, tick, grid, cells, bikes, minimap, minimapScale);
+    }
+
+    /**
+     * Creates a delta frame
+     * @param baseTick The last tick acknowledged by the client
+     * @param tick The tick reached once the delta is applied
+     * @param cells The written cells as (x, y, player id) triples
+     * @param bikes The bikes as (x, y, direction, alive) quadruples
+     * @param minimap The minimap, or null
+     * @param minimapScale The number of arena cells covered by a minimap cell, along each side
+     * @return The delta frame
+     */
+    public static GameFrame delta(long baseTick, long tick, int[] cells, int[] bikes, GridFrame minimap, int minimapScale){
+        return new GameFrame(baseTick, tick, null, cells, bikes, minimap, minimapScale);
+    }
+
+    //=====================
+    //=== SERIALIZATION ===
+    //=====================
+
+    /**
+     * Encodes the frame once and for all
+     * @return The encoded frame
+     */
+    private byte[] encode(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // Can't happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the frame: the ticks, the bikes, the packed grid for a keyframe, the written cells, then the minimap
+     * @param out The output
+     * @throws IOException
+     */
+    private void write(DataOutput out) throws IOException {
+        out.writeLong(baseTick);
+        out.writeLong(tick);
+        out.writeByte(bikes.length / 4);
+        for(int k = 0; k < bikes.length; k += 4){
+            out.writeShort(bikes[k]);
+            out.writeShort(bikes[k+1]);
+            out.writeChar(bikes[k+2]);
+            out.writeBoolean(bikes[k+3] != 0);
+        }
+        out.writeBoolean(isKeyframe());
+        if(isKeyframe()){
+            grid.write(out);
+        }
+        out.writeShort(cells.length / 3);
+        for(int k = 0; k < cells.length; k += 3){
+            out.writeShort(cells[k]);
+            out.writeShort(cells[k+1]);
+            out.writeByte(cells[k+2]);
+        }
+        out.writeBoolean(minimap != null);
+        if(minimap != null){
+            out.writeByte(minimapScale);
+            minimap.write(out);
+        }
+    }
+
+    /**
+     * Reads the frame
+     * @param in The input
+     * @throws IOException
+     */
+    private void read(DataInput in) throws IOException {
+        baseTick = in.readLong();
+        tick = in.readLong();
+        bikes = new int[in.readUnsignedByte() * 4];
+        for(int k = 0; k < bikes.length; k += 4){
+            bikes[k] = in.readUnsignedShort();
+            bikes[k+1] = in.readUnsignedShort();
+            bikes[k+2] = in.readChar();
+            bikes[k+3] = in.readBoolean() ? 1 : 0;
+        }
+        if(in.readBoolean()){
+            grid = new GridFrame();
+            grid.read(in);
+        }
+        cells = new int[in.readUnsignedShort() * 3];
+        for(int k = 0; k < cells.length; k += 3){
+            cells[k] = in.readUnsignedShort();
+            cells[k+1] = in.readUnsignedShort();
+            cells[k+2] = in.readUnsignedByte();
+        }
+        if(in.readBoolean()){
+            minimapScale = in.readUnsignedByte();
+            minimap = new GridFrame();
+            minimap.read(in);
+        }
+    }
+
+    /**
+     * Decodes a frame received outside of Java serialization
+     * @param encoded The encoded frame
+     * @return The frame
+     * @throws IOException If the frame is malformed
+     */
+    public static GameFrame decode(byte[] encoded) throws IOException {
+        GameFrame frame = new GameFrame();
+        frame.encoded = encoded;
+        frame.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+        return frame;
+    }
+
+    /**
+     * Writes the already encoded frame
+     * @param out The output stream
+     * @throws IOException
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * Reads and decodes the frame
+     * @param in The input stream
+     * @throws IOException
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns whether the frame holds the whole grid
+     * @return Whether the frame holds the whole grid
+     */
+    public boolean isKeyframe(){
+        return grid != null;
+    }
+
+    /**
+     * Returns the tick on top of which the frame has to be applied
+     * @return The tick on top of which the frame has to be applied (-1 for a keyframe)
+     */
+    public long getBaseTick() {
+        return baseTick;
+    }
+
+    /**
+     * Returns the tick reached once the frame is applied
+     * @return The tick reached once the frame is applied
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the whole grid, the cells of the frame are to be applied on top of it
+     * @return The packed grid, or null for a delta
+     */
+    public GridFrame getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the cells written since the base tick, or since the grid for a keyframe
+     * @return The written cells as (x, y, player id) triples
+     */
+    public int[] getCells() {
+        return cells;
+    }
+
+    /**
+     * Returns the state of the bikes at the tick of the frame
+     * @return The bikes as (x, y, direction, alive) quadruples, in player number order
+     */
+    public int[] getBikes() {
+        return bikes;
+    }
+
+    /**
+     * Returns the whole arena at a low resolution
+     * @return The minimap, or null if the frame has none
+     */
+    public GridFrame getMinimap() {
+        return minimap;
+    }
+
+    /**
+     * Returns the number of arena cells covered by a minimap cell, along each side
+     * @return The scale of the minimap
+     */
+    public int getMinimapScale() {
+        return minimapScale;
+    }
+
+    /**
+     * Returns the encoded frame, as sent on the wire
+     * @return The encoded frame (not to be modified)
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+/**
+ * The grid of a game: the player owning each cell and the freshness of its path.
+ * The cells are stored flat, row after row, instead of as arrays of int arrays,
+ * so a game holds two small arrays and a cell is found by index arithmetic.
+ * A cell keeps the tick it was written at and its freshness is worked out when read,
+ * so the paths get older without the whole grid being swept on every tick.
+ * Only the low 16 bits of the tick are kept, the ages are read modulo 2^16. Once in a while the cells too old
+ * to be fresh are stamped far in the past again, so their age never wraps around to a fresh one.
+ * @author Johan & Luther
+ */
+public class GameGrid implements IGridView {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Freshness of a path written during the current tick, it loses 1 per tick
+    private static final int MAX_FRESHNESS = 10;
+    // The write ticks and the ages are kept modulo 2^16
+    private static final int TICK_MASK = 0xFFFF;
+    // Age given to the cells too old to be fresh, far enough from wrapping around
+    private static final int STALE_AGE = 0x8000;
+    // Ticks between two restampings of the stale cells, a cell can't get 2^16 ticks old in the meantime
+    private static final int RESTAMP_INTERVAL = 0x4000;
+
+    private final int width;
+    private final int height;
+    // The id of the player owning each cell (0 = empty), row after row
+    private final byte[] cells;
+    // The low 16 bits of the tick at which each cell was written, for the freshness, row after row
+    private final short[] writeTicks;
+    // The tick being played, the freshness is relative to it
+    private int currentTick = 0;
+    // The tick at which the stale cells were last restamped
+    private int restampTick = 0;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates an empty grid
+     * @param width The width of the grid
+     * @param height The height of the grid
+     */
+    public GameGrid(int width, int height){
+        this.width = width;
+        this.height = height;
+        this.cells = new byte[width * height];
+        this.writeTicks = new short[width * height];
+        Arrays.fill(writeTicks, getStaleTick());
+    }
+
+    //======================
+    //=== GRID FUNCTIONS ===
+    //======================
+
+    /**
+     * Returns the index of a cell in the flat arrays
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     * @return The index of the cell
+     */
+    private int index(int x, int y){
+        return y * width + x;
+    }
+
+    /**
+     * Gives a cell to a player
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     * @param playerID The id of the player
+     * @param tick The tick at which the cell is written
+     */
+    public void writeCell(int x, int y, int playerID, long tick){
+        cells[index(x, y)] = (byte) playerID;
+        writeTicks[index(x, y)] = (short) tick;
+    }
+
+    /**
+     * Empties a cell
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     */
+    public void clearCell(int x, int y){
+        cells[index(x, y)] = 0;
+        writeTicks[index(x, y)] = getStaleTick();
+    }
+
+    /**
+     * Sets the tick being played, the freshness of the paths is read relative to it
+     * @param tick The tick being played
+     */
+    public void setCurrentTick(long tick){
+        currentTick = (int) tick;
+        if(Math.abs(currentTick - restampTick) >= RESTAMP_INTERVAL){
+            restampStaleCells();
+        }
+    }
+
+    /**
+     * Stamps the cells too old to be fresh far in the past again, relative to the current tick
+     */
+    private void restampStaleCells(){
+        short staleTick = getStaleTick();
+        for(int i = 0; i < writeTicks.length; i++){
+            if(getAge(i) >= MAX_FRESHNESS){
+                writeTicks[i] = staleTick;
+            }
+        }
+        restampTick = currentTick;
+    }
+
+    /**
+     * Returns the write tick of a cell too old to be fresh
+     * @return The write tick of a stale cell
+     */
+    private short getStaleTick(){
+        return (short) (currentTick - STALE_AGE);
+    }
+
+    /**
+     * Returns the number of ticks since a cell was written, modulo 2^16
+     * @param index The index of the cell
+     * @return The age of the cell
+     */
+    private int getAge(int index){
+        return (currentTick - writeTicks[index]) & TICK_MASK;
+    }
+
+    /**
+     * Empties every cell
+     */
+    public void clear(){
+        Arrays.fill(cells, (byte) 0);
+        Arrays.fill(writeTicks, getStaleTick());
+        restampTick = currentTick;
+    }
+
+    /**
+     * Returns a copy of the cells as arrays of int arrays, column after column
+     * @return A copy of the cells
+     */
+    public int[][] toArray(){
+        int[][] grid = new int[width][height];
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                grid[x][y] = getCell(x, y);
+            }
+        }
+        return grid;
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the width of the grid
+     * @return The width of the grid
+     */
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    /**
+     * Returns the height of the grid
+     * @return The height of the grid
+     */
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    /**
+     * Returns the player owning a cell
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     * @return The id of the player owning the cell (0 = empty)
+     */
+    @Override
+    public int getCell(int x, int y){
+        return cells[index(x, y)];
+    }
+
+    /**
+     * Returns the freshness of a cell, from the number of ticks since it was written
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     * @return The freshness of the cell (0 = quite old path)
+     */
+    @Override
+    public int getFreshness(int x, int y){
+        return Math.max(0, MAX_FRESHNESS - getAge(index(x, y)));
+    }
+}
@@ -1,7 +1,10 @@
 import java.awt.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class handles the multiplayer games
@@ -17,15 +20,22 @@ public class GameLobby {
     private static final int TIMER_MAX_SECONDS = 10;
     private static final int TIMER_INTERVAL = 1000;
     private Timer timer;
+    // Server time at which the game starts (tick 0)
+    private long startTime;
 
-    // Players
-    private static final int MAX_PLAYERS = 4;
-    private final HashMap<Long, HumanPlayer> players;
+    // Players, read and cleared by the game loops and the timer while the server threads change them
+    private final Map<Long, HumanPlayer> players;
+    // The size of the arena and the number of bikes, the human players join up to that number
+    private final ArenaConfig arena;
 
     // Parent server
     private ILobbyManager server;
     // Game core
     private Core core;
+    // Relays the frames to the spectators
+    private final SpectatorRelay spectatorRelay;
+    // Plays the ticks of the game, along with the games of the other lobbies
+    private final GameLoopScheduler gameLoopScheduler;
 
     // For debugging
     private final Long lobbyID;
@@ -38,11 +48,18 @@ public class GameLobby {
      * Creates a new game lobby
      * @param server The parent server
      * @param lobbyID The lobby ID
+     * @param spectatorRelay Relays the frames to the spectators
+     * @param gameLoopScheduler Plays the ticks of the games
+     * @param arena The size of the arena and the number of bikes in the games of the lobby
      */
-    public GameLobby(ILobbyManager server, Long lobbyID){
+    public GameLobby(ILobbyManager server, Long lobbyID, SpectatorRelay spectatorRelay, GameLoopScheduler gameLoopScheduler,
+                     ArenaConfig arena){
         this.lobbyID = lobbyID;
         this.server = server;
-        this.players = new HashMap<>(MAX_PLAYERS);
+        this.spectatorRelay = spectatorRelay;
+        this.gameLoopScheduler = gameLoopScheduler;
+        this.arena = arena;
+        this.players = new ConcurrentHashMap<>(arena.getNbrOfPlayers());
     }
 
     //======================
@@ -55,45 +72,35 @@ public class GameLobby {
     public void startGame(){
         // Checks if the game is not already in progress
         if(core == null || !core.isGameInProgress()){
-            // Initialize the core
-            core = new Core(players.values());
-
-            // Launches the core thread
-            Thread coreThread = new Thread() {
-                public void run() {
-                    System.out.println("Start game");
-                    // Run the game
-                    core.runGame();
-                    System.out.println("End game - Clear players");
-                    // Removes the players from the lobby at the end of the game
-                    players.clear();
-                }
-            };
-            coreThread.start();
-
-            // Launch an update thread for each player
-            for (HumanPlayer player : players.values()){
-                Thread gameThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // While the game is in progress or while the player is watching the game
-                        // Update the player screen every 50ms
-                        while (core.isGameInProgress() && player.isWatching()) {
-                            try {
-                                Thread.sleep(50);
-                            } catch (InterruptedException e) {
-                                System.out.println("Exception in GameLobby " + lobbyID + " : " + e.getMessage());
-                            }
-                            if(player.isWatching()){
-                                server.updatePlayer(player.getClientID(), player.getScore(), core.getGrid(),
-                                        !core.isGameInProgress(), core.getsWinnerName());
-                            }
-                        }
-                    }
-                });
-                gameThread.start();
+            // Initialize the core, the players get a frame right after each tick
+            core = new Core(players.values(), arena);
+            core.setTickListener(this::broadcastFrame);
+            core.setStartTime(startTime);
+
+            // Hands the game over to the game loops
+            System.out.println("Start game");
+            gameLoopScheduler.schedule(core, () -> {
+                System.out.println("End game - Clear players");
+                // Removes the players from the lobby at the end of the game
+                players.clear();
+            });
+        }
+    }
+
+    /**
+     * Sends the new frame to the players that are still watching the game, and hands it over to the spectators
+     * Called by the core right after each tick
+     * @param tickCore The core that completed a tick
+     */
+    private void broadcastFrame(Core tickCore){
+        boolean isGameOver = !tickCore.isGameInProgress();
+        for (HumanPlayer player : new ArrayList<>(players.values())){
+            if(player.isWatching()){
+                server.updatePlayer(player.getClientID(), tickCore.getPlayerNumber(player), player.getScore(), tickCore,
+                        isGameOver, tickCore.getsWinnerName());
             }
         }
+        spectatorRelay.publish(tickCore);
     }
 
     //=======================
@@ -109,30 +116,27 @@ public class GameLobby {
             timer.cancel();
         }
 
+        // The game starts when the countdown ends, the players know it in advance and count down themselves
+        // It starts on a tick of the game loops, so it ticks along with the other games
+        startTime = gameLoopScheduler.alignToTimeline(System.currentTimeMillis() + TIMER_MAX_SECONDS * TIMER_INTERVAL);
+        server.lobbyChanged(this);
+
         // Determine what the timer has to do
         TimerTask timerTask = new TimerTask() {
-            int counter = TIMER_MAX_SECONDS;
             @Override
             public void run() {
-                // Update the lobby timer of all the players
-                server.updateLobbyTimer(players.keySet(), counter);
-
-                if(counter <= 0) {
-                    if(players.size() > 1){
-                        startGame();
-                    }
-                    else if(players.size() == 1){
-                        startTimer();
-                    }
-                    cancel();
+                if(players.size() > 1){
+                    startGame();
+                }
+                else if(players.size() == 1){
+                    // Not enough players, the countdown starts over with a new start time
+                    startTimer();
                 }
-
-                counter--;
             }
         };
-        // Running timer task as daemon thread
+        // Running timer task as daemon thread, once at the start time the players count down to
         timer = new Timer(true);
-        timer.scheduleAtFixedRate(timerTask, 0, TIMER_INTERVAL);
+        timer.schedule(timerTask, Math.max(0, startTime - System.currentTimeMillis()));
     }
 
     /**
@@ -144,7 +148,7 @@ public class GameLobby {
         // Check if the new player can join
         boolean canJoin =
                 (core == null || !core.isGameInProgress()) &&
-                getNbrOfPlayers() < MAX_PLAYERS &&
+                getNbrOfPlayers() < arena.getNbrOfPlayers() &&
                 !players.containsKey(clientID);
 
         // If he can join ...
@@ -154,8 +158,8 @@ public class GameLobby {
             // Add him to the list of players
             players.put(clientID, new HumanPlayer(clientID));
 
-            // Update the lobby player list of all the players
-            server.updateLobbyPlayerList(players.keySet());
+            // Update the lobby of all the players
+            server.lobbyChanged(this);
 
             // If he is the first player, start the countdown timer
             if(firstPlayer){
@@ -170,12 +174,11 @@ public class GameLobby {
      * @param clientID The player ID of the player that wants to leave
      */
     public void leave(long clientID){
-        // If the player is really part of the lobby's players
-        if(players.containsKey(clientID)){
+        // Remove the player from the list, if he is really part of the lobby's players
+        HumanPlayer player = players.remove(clientID);
+        if(player != null){
             // The player doesn't want to see the game any longer
-            players.get(clientID).setWatching(false);
-            // Remove the player from the list
-            players.remove(clientID);
+            player.setWatching(false);
 
             // If there are no players anymore
             if(players.isEmpty()){
@@ -189,7 +192,7 @@ public class GameLobby {
                 }
             } // Update the lobby player list
             else if(core == null || !core.isGameInProgress()){
-                server.updateLobbyPlayerList(players.keySet());
+                server.lobbyChanged(this);
             }
         }
     }
@@ -200,12 +203,21 @@ public class GameLobby {
 
     /**
      * Changes the current direction of the player
+     * During a game, the core applies it to the tick the player saw when he turned
      * @param clientID The player ID of the player that wants to change direction
      * @param newDirection The new direction
+     * @param tick The tick seen by the player (-1 if unknown)
      */
-    public void setCurrentDirection(long clientID, char newDirection){
-        if(players.containsKey(clientID)){
-            players.get(clientID).setcCarDir(newDirection);
+    public void setCurrentDirection(long clientID, char newDirection, long tick){
+        HumanPlayer player = players.get(clientID);
+        if(player != null){
+            Core gameCore = core;
+            if(gameCore != null && gameCore.isGameInProgress()){
+                gameCore.queueInput(player, newDirection, tick);
+            }
+            else {
+                player.setcCarDir(newDirection);
+            }
         }
     }
 
@@ -215,7 +227,8 @@ public class GameLobby {
      * @return The current direction of the player
      */
     public char getCurrentDirection(long clientID){
-        return players.containsKey(clientID) ? players.get(clientID).getcCarDir() : ' ';
+        HumanPlayer player = players.get(clientID);
+        return player != null ? player.getcCarDir() : ' ';
     }
 
     /**
@@ -224,7 +237,8 @@ public class GameLobby {
      * @return Whether the player is still alive or not
      */
     public boolean isPlayerAlive(long clientID) {
-        return players.containsKey(clientID) && players.get(clientID).isAlive();
+        HumanPlayer player = players.get(clientID);
+        return player != null && player.isAlive();
     }
 
     //===============
@@ -239,6 +253,47 @@ public class GameLobby {
         return this.lobbyID;
     }
 
+    /**
+     * Returns the size of the arena and the number of bikes in the games of the lobby
+     * @return The arena of the lobby
+     */
+    public ArenaConfig getArena(){
+        return this.arena;
+    }
+
+    /**
+     * Returns the player IDs of the players in the lobby
+     * @return A copy of the player IDs of the players in the lobby
+     */
+    public Collection<Long> getPlayerIDs(){
+        return new ArrayList<>(players.keySet());
+    }
+
+    /**
+     * Returns the server time at which the game starts
+     * @return The server time at which the game starts
+     */
+    public long getStartTime(){
+        return startTime;
+    }
+
+    /**
+     * Returns whether a game is in progress in the lobby
+     * @return Whether a game is in progress in the lobby
+     */
+    public boolean isGameInProgress(){
+        Core gameCore = core;
+        return gameCore != null && gameCore.isGameInProgress();
+    }
+
+    /**
+     * Returns the relay of the frames to the spectators
+     * @return The relay of the frames to the spectators
+     */
+    public SpectatorRelay getSpectatorRelay(){
+        return spectatorRelay;
+    }
+
     /**
      * Returns the number of players in the game lobby
      * @return The number of players in the game lobby
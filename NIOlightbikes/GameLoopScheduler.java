@@ -0,0 +1,215 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The shared scheduler that plays the ticks of every game core.
+ * It owns one loop thread per processor instead of one sleeping thread per game, and every loop ticks on the same
+ * timeline: the start times of the games are aligned on it, so all the games tick together.
+ * A game is assigned to the loop playing the fewest games and stays on it until it is over.
+ * A loop that wakes up late applies the overrun policy to the late ticks, the decisions are counted in the metrics.
+ * @author Johan & Luther
+ */
+public class GameLoopScheduler {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Time of tick 0 of the shared timeline
+    private final long epoch;
+    // The loops, each playing its own games
+    private final GameLoop[] loops;
+    // What the loops do with the late ticks
+    private volatile OverrunPolicy overrunPolicy = OverrunPolicy.CATCH_UP;
+    // The metrics of the games that are over
+    private final TickMetrics metrics = new TickMetrics();
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a scheduler with one loop per processor
+     */
+    public GameLoopScheduler(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler
+     * @param nbrOfLoops The number of loop threads
+     */
+    public GameLoopScheduler(int nbrOfLoops){
+        epoch = System.currentTimeMillis();
+        loops = new GameLoop[nbrOfLoops];
+        for(int i = 0; i < nbrOfLoops; i++){
+            loops[i] = new GameLoop();
+            Thread thread = new Thread(loops[i], "game-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    //===========================
+    //=== SCHEDULER FUNCTIONS ===
+    //===========================
+
+    /**
+     * Plays a game on the least busy loop until it is over
+     * A game without a start time starts on the next tick of the timeline
+     * @param core The core of the game
+     * @param onGameOver Run on the loop thread once the game is over
+     */
+    public void schedule(Core core, Runnable onGameOver){
+        if(core.getStartTime() == 0){
+            core.setStartTime(alignToTimeline(System.currentTimeMillis()));
+        }
+        GameLoop leastBusy = loops[0];
+        for(GameLoop loop : loops){
+            if(loop.getNbrOfGames() < leastBusy.getNbrOfGames()){
+                leastBusy = loop;
+            }
+        }
+        leastBusy.add(new ScheduledGame(core, onGameOver));
+    }
+
+    /**
+     * Returns the first tick of the timeline at or after a time, a game starting then ticks with all the others
+     * @param time The time in ms
+     * @return The time of the tick in ms
+     */
+    public long alignToTimeline(long time){
+        long ticks = (time - epoch + Core.TICK_MILLIS - 1) / Core.TICK_MILLIS;
+        return epoch + Math.max(0, ticks) * Core.TICK_MILLIS;
+    }
+
+    /**
+     * Sets what the loops do with the late ticks
+     * @param overrunPolicy The overrun policy
+     */
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy){
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Returns what the loops do with the late ticks
+     * @return The overrun policy
+     */
+    public OverrunPolicy getOverrunPolicy(){
+        return overrunPolicy;
+    }
+
+    /**
+     * Returns the metrics of the games that are over
+     * @return The metrics of the games that are over
+     */
+    public TickMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Returns the number of games being played
+     * @return The number of games being played
+     */
+    public int getNbrOfGames(){
+        int nbrOfGames = 0;
+        for(GameLoop loop : loops){
+            nbrOfGames += loop.getNbrOfGames();
+        }
+        return nbrOfGames;
+    }
+
+    //=====================
+    //=== INNER CLASSES ===
+    //=====================
+
+    /**
+     * A game played by a loop and what to do when it is over
+     */
+    private static class ScheduledGame {
+        private final Core core;
+        private final Runnable onGameOver;
+
+        private ScheduledGame(Core core, Runnable onGameOver){
+            this.core = core;
+            this.onGameOver = onGameOver;
+        }
+    }
+
+    /**
+     * A loop thread, it wakes up on each tick of the timeline and plays the ticks due in its games
+     */
+    private class GameLoop implements Runnable {
+        private final List<ScheduledGame> games = new CopyOnWriteArrayList<>();
+
+        /**
+         * Adds a game to the loop and wakes it up if it was idle
+         * @param game The game
+         */
+        private synchronized void add(ScheduledGame game){
+            games.add(game);
+            notifyAll();
+        }
+
+        /**
+         * Returns the number of games played by the loop
+         * @return The number of games played by the loop
+         */
+        private int getNbrOfGames(){
+            return games.size();
+        }
+
+        /**
+         * Plays the games until the server stops
+         */
+        @Override
+        public void run(){
+            while(true){
+                try {
+                    // Idle loops wait for a game instead of ticking for nothing
+                    synchronized (this){
+                        while(games.isEmpty()){
+                            wait();
+                        }
+                    }
+                    long wait = alignToTimeline(System.currentTimeMillis() + 1) - System.currentTimeMillis();
+                    if(wait > 0){
+                        Thread.sleep(wait);
+                    }
+                    long now = System.currentTimeMillis();
+                    for(ScheduledGame game : games){
+                        playDueTicks(game, now);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Plays the ticks due in a game and removes it once it is over
+         * @param game The game
+         * @param now The current time in ms
+         */
+        private void playDueTicks(ScheduledGame game, long now){
+            try {
+                game.core.stepUntil(now, overrunPolicy);
+            }
+            catch(Exception e) {
+                System.out.println("Exception in Core " + e.getMessage());
+            }
+            if(!game.core.isGameInProgress()){
+                games.remove(game);
+                // A failing game over only concerns its lobby, the other games of the loop go on
+                try {
+                    metrics.add(game.core.getMetrics());
+                    System.out.println("Game played on " + Thread.currentThread().getName() + ": " + game.core.getMetrics());
+                    game.onGameOver.run();
+                }
+                catch(Exception e) {
+                    System.out.println("Exception in game over " + e);
+                }
+            }
+        }
+    }
+}
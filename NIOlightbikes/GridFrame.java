@@ -0,0 +1,381 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact snapshot of the game grid. Each cell only holds a player id, so the cells are packed with
+ * just enough bits for the highest id (3 bits for 4 players) instead of being sent as an array of int arrays.
+ * When it is smaller, the grid is sent as the trail segments of the bikes instead, so its size follows
+ * the number of turns rather than the size of the arena. The segments are drawn into cells when first read.
+ * A grid frame may only hold a region of the arena, the cells keep their position in the arena.
+ * @author Johan & Luther
+ */
+public class GridFrame implements Externalizable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    static final long serialVersionUID = 201610180002L;
+
+    // Highest player id a cell can hold, a cell then straddles two bytes at most
+    public static final int MAX_CELL_VALUE = 127;
+    // The encodings of the grid
+    private static final byte PACKED_CELLS = 0;
+    private static final byte TRAIL_SEGMENTS = 1;
+    // Size of an encoded segment: the player, the direction and the two ends
+    private static final int SEGMENT_BYTES = 10;
+    // Highest number of segments, their count is sent as an unsigned short
+    private static final int MAX_SEGMENTS = 0xFFFF;
+
+    // Position of the region in the arena
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    // Number of bits used by a cell
+    private int bitsPerCell;
+    // The cells, column after column, packed bitsPerCell bits each (null until the segments are drawn)
+    private byte[] packedCells;
+    // The trail segments of the bikes (null if the grid is sent as packed cells)
+    private TrailSegment[] segments;
+
+    //====================
+    //=== CONSTRUCTORS ===
+    //====================
+
+    /**
+     * Creates an empty grid frame, only used by the deserialization
+     */
+    public GridFrame(){
+    }
+
+    /**
+     * Creates a grid frame by packing the given grid
+     * @param grid The grid to pack
+     */
+    public GridFrame(int[][] grid){
+        this(grid, 0, 0);
+    }
+
+    /**
+     * Creates a grid frame by packing the cells of a game grid
+     * @param grid The grid to pack
+     */
+    public GridFrame(IGridView grid){
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        int maxValue = 0;
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                maxValue = Math.max(maxValue, grid.getCell(i, j));
+            }
+        }
+        this.bitsPerCell = getBitsPerCell(maxValue);
+        this.packedCells = new byte[getPackedSize(width, height, bitsPerCell)];
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                if(grid.getCell(i, j) != 0){
+                    setCell(i * height + j, grid.getCell(i, j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a grid frame by packing the given region of the arena
+     * @param grid The cells of the region to pack
+     * @param x The x position of the region in the arena
+     * @param y The y position of the region in the arena
+     */
+    public GridFrame(int[][] grid, int x, int y){
+        this.x = x;
+        this.y = y;
+        this.width = grid.length;
+        this.height = grid[0].length;
+        int maxValue = 0;
+        for(int[] column : grid){
+            for(int cell : column){
+                maxValue = Math.max(maxValue, cell);
+            }
+        }
+        this.bitsPerCell = getBitsPerCell(maxValue);
+        this.packedCells = new byte[getPackedSize(width, height, bitsPerCell)];
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                if(grid[i][j] != 0){
+                    setCell(i * height + j, grid[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a grid frame from the trail segments of the bikes
+     * @param x The x position of the region in the arena
+     * @param y The y position of the region in the arena
+     * @param width The width of the region
+     * @param height The height of the region
+     * @param segments The trail segments of the bikes, inside the region
+     */
+    public GridFrame(int x, int y, int width, int height, List<TrailSegment> segments){
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.segments = segments.toArray(new TrailSegment[segments.size()]);
+    }
+
+    /**
+     * Returns the number of bits a cell needs to hold the ids up to a value
+     * @param maxValue The highest value of a cell
+     * @return The number of bits of a cell
+     */
+    public static int getBitsPerCell(int maxValue){
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(maxValue));
+    }
+
+    /**
+     * Returns the number of bytes taken by packed cells
+     * @param width The width of the grid
+     * @param height The height of the grid
+     * @param bitsPerCell The number of bits of a cell
+     * @return The number of bytes of the packed cells
+     */
+    private static int getPackedSize(int width, int height, int bitsPerCell){
+        return (width * height * bitsPerCell + 7) / 8;
+    }
+
+    /**
+     * Returns whether a grid is smaller sent as trail segments than as packed cells
+     * A grid with more segments than their count can tell is always sent as packed cells
+     * @param width The width of the grid
+     * @param height The height of the grid
+     * @param nbrOfSegments The number of trail segments on the grid
+     * @param maxPlayerID The highest player id on the grid
+     * @return Whether the segments are smaller than the packed cells
+     */
+    public static boolean isSmallerAsSegments(int width, int height, int nbrOfSegments, int maxPlayerID){
+        return nbrOfSegments <= MAX_SEGMENTS
+                && 2 + nbrOfSegments * SEGMENT_BYTES < 1 + getPackedSize(width, height, getBitsPerCell(maxPlayerID));
+    }
+
+    /**
+     * Returns the part of the grid inside a region of the arena
+     * @param x The x position of the region
+     * @param y The y position of the region
+     * @param width The width of the region
+     * @param height The height of the region
+     * @return The grid of the region (this grid if it is the same region)
+     */
+    public GridFrame getRegion(int x, int y, int width, int height){
+        if(x == this.x && y == this.y && width == this.width && height == this.height){
+            return this;
+        }
+        if(segments != null){
+            List<TrailSegment> clipped = new ArrayList<>();
+            int maxPlayerID = 0;
+            for(TrailSegment segment : segments){
+                TrailSegment part = segment.clippedTo(x, y, width, height);
+                if(part != null){
+                    clipped.add(part);
+                    maxPlayerID = Math.max(maxPlayerID, part.getPlayer());
+                }
+            }
+            if(isSmallerAsSegments(width, height, clipped.size(), maxPlayerID)){
+                return new GridFrame(x, y, width, height, clipped);
+            }
+        }
+        int[][] cells = new int[width][height];
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                cells[i][j] = getCell(x + i, y + j);
+            }
+        }
+        return new GridFrame(cells, x, y);
+    }
+
+    //======================
+    //=== CELL FUNCTIONS ===
+    //======================
+
+    /**
+     * Draws the trail segments into packed cells, a cell belongs to one segment at most
+     */
+    private void drawSegments(){
+        int maxPlayerID = 0;
+        for(TrailSegment segment : segments){
+            maxPlayerID = Math.max(maxPlayerID, segment.getPlayer());
+        }
+        bitsPerCell = getBitsPerCell(maxPlayerID);
+        packedCells = new byte[getPackedSize(width, height, bitsPerCell)];
+        for(TrailSegment segment : segments){
+            for(int i = segment.getMinX(); i <= segment.getMaxX(); i++){
+                for(int j = segment.getMinY(); j <= segment.getMaxY(); j++){
+                    setCell((i - x) * height + (j - y), segment.getPlayer());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the value of a cell that is still empty
+     * @param index The index of the cell
+     * @param value The value of the cell
+     */
+    private void setCell(int index, int value){
+        int bit = index * bitsPerCell;
+        // A cell may straddle two bytes
+        int shifted = (value & ((1 << bitsPerCell) - 1)) << (bit & 7);
+        packedCells[bit >> 3] |= (byte) shifted;
+        if((shifted >> 8) != 0){
+            packedCells[(bit >> 3) + 1] |= (byte) (shifted >> 8);
+        }
+    }
+
+    /**
+     * Returns the value of a cell
+     * @param x The x position of the cell in the arena
+     * @param y The y position of the cell in the arena
+     * @return The id of the player that owns the cell (0 = empty)
+     */
+    public int getCell(int x, int y){
+        if(packedCells == null){
+            drawSegments();
+        }
+        int bit = ((x - this.x) * height + (y - this.y)) * bitsPerCell;
+        int packed = packedCells[bit >> 3] & 0xFF;
+        if((bit >> 3) + 1 < packedCells.length){
+            packed |= (packedCells[(bit >> 3) + 1] & 0xFF) << 8;
+        }
+        return (packed >> (bit & 7)) & ((1 << bitsPerCell) - 1);
+    }
+
+    //=====================
+    //=== SERIALIZATION ===
+    //=====================
+
+    /**
+     * Writes the grid: its region, then either the trail segments or the size of a cell and the packed cells
+     * @param out The output
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeShort(width);
+        out.writeShort(height);
+        if(segments != null){
+            out.writeByte(TRAIL_SEGMENTS);
+            out.writeShort(segments.length);
+            for(TrailSegment segment : segments){
+                out.writeByte(segment.getPlayer());
+                out.writeByte(segment.getDirection());
+                out.writeShort(segment.getX1());
+                out.writeShort(segment.getY1());
+                out.writeShort(segment.getX2());
+                out.writeShort(segment.getY2());
+            }
+        }
+        else {
+            out.writeByte(PACKED_CELLS);
+            out.writeByte(bitsPerCell);
+            out.write(packedCells);
+        }
+    }
+
+    /**
+     * Reads the grid
+     * @param in The input
+     * @throws IOException
+     */
+    public void read(DataInput in) throws IOException {
+        x = in.readUnsignedShort();
+        y = in.readUnsignedShort();
+        width = in.readUnsignedShort();
+        height = in.readUnsignedShort();
+        if(in.readByte() == TRAIL_SEGMENTS){
+            segments = new TrailSegment[in.readUnsignedShort()];
+            for(int k = 0; k < segments.length; k++){
+                int player = in.readUnsignedByte();
+                char direction = (char) in.readUnsignedByte();
+                segments[k] = new TrailSegment(player, in.readUnsignedShort(), in.readUnsignedShort(),
+                        in.readUnsignedShort(), in.readUnsignedShort(), direction);
+            }
+        }
+        else {
+            bitsPerCell = in.readUnsignedByte();
+            packedCells = new byte[getPackedSize(width, height, bitsPerCell)];
+            in.readFully(packedCells);
+        }
+    }
+
+    /**
+     * Writes the grid
+     * @param out The output stream
+     * @throws IOException
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    /**
+     * Reads the grid
+     * @param in The input stream
+     * @throws IOException
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the x position of the grid in the arena
+     * @return The x position of the grid
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y position of the grid in the arena
+     * @return The y position of the grid
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Returns the width of the grid
+     * @return The width of the grid
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the grid
+     * @return The height of the grid
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the trail segments of the bikes
+     * @return The trail segments, or null if the grid is sent as packed cells
+     */
+    public TrailSegment[] getSegments() {
+        return segments;
+    }
+}
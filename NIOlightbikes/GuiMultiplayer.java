@@ -21,6 +21,13 @@ public class GuiMultiplayer extends javax.swing.JFrame {
     private int playerNameListSize = 1;
     private List<String> playerNameList;
 
+    // Countdown vars, the countdown runs in the client clock
+    private static final int COUNTDOWN_REFRESH_MILLIS = 100;
+    private javax.swing.Timer countDownTimer;
+    // When the game starts in the client clock
+    private long startTime;
+    private int lastCountDown = -1;
+
     //===============================
     //=== ERROR MESSAGES & TITLES ===
     //===============================
@@ -63,6 +70,9 @@ public class GuiMultiplayer extends javax.swing.JFrame {
      * Close the game lobby frame
      */
     public void close(){
+        if(countDownTimer != null){
+            countDownTimer.stop();
+        }
         guiParent.setEnabled(true);
         guiParent.setVisible(true);
         this.setVisible(false);
@@ -92,11 +102,41 @@ public class GuiMultiplayer extends javax.swing.JFrame {
         jScrollPaneList.updateUI();
     }
 
+    /**
+     * Starts counting down to the game start, sent by the server once and again only when it changes
+     * @param startTime When the game starts in the client clock
+     */
+    public void setGameStart(long startTime){
+        SwingUtilities.invokeLater(() -> {
+            this.startTime = startTime;
+            lastCountDown = -1;
+            if(countDownTimer == null){
+                countDownTimer = new javax.swing.Timer(COUNTDOWN_REFRESH_MILLIS, evt -> refreshCountDown());
+            }
+            countDownTimer.restart();
+            refreshCountDown();
+        });
+    }
+
+    /**
+     * Shows the seconds left before the game starts when it changes
+     */
+    private void refreshCountDown(){
+        int countDown = (int) Math.max(0, (startTime - System.currentTimeMillis() + 999) / 1000);
+        if(countDown != lastCountDown){
+            lastCountDown = countDown;
+            updateTimer(countDown);
+        }
+        if(countDown <= 0){
+            countDownTimer.stop();
+        }
+    }
+
     /**
      * Update the countdown timer
      * @param countDown The number of seconds left before the game starts
      */
-    public void updateTimer(int countDown){
+    private void updateTimer(int countDown){
         // Close the lobby screen if the timer gets to 0
         if(countDown <= 0){
             if(playerNameListSize > 1){
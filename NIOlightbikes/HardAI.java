@@ -1,11 +1,10 @@
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.HashSet;
 
 /**
  * This is the most advanced AI (that I wrote for this problem). Basically, it looks at the 200 earliest possible moves, and selects the one that leads to the greatest distance in the long run.
- * To be perfect, it should look at 10000 moves (the whole grid) and account for other players moves, but it would be freaking slow and it's still god darn good as it is.
+ * To be perfect, it should look at every move (the whole grid) and account for other players moves, but it would be freaking slow and it's still god darn good as it is.
  * @author Sam
  */
 public class HardAI implements IAI {
@@ -15,11 +14,10 @@ public class HardAI implements IAI {
       * @param cCarDir the current direction of the player (0=Up, 1=Right, 2=Down, 3=Left)
       * @param x the x position of the player on the grid (column; 0 = left)
       * @param y the y position of the player on the grid (line; 0 = top)
-      * @param iGrid a copy of the current grid representation
-      * @param iTimer a copy of the current freshness information
+      * @param grid a view of the current grid representation and freshness information
       * @return a character as a movement decision ('U', 'R', 'L', 'D').
       */
-     public char getNewDir(char cCarDir, int x, int y, int[][] iGrid, int[][] iTimer)
+     public char getNewDir(char cCarDir, int x, int y, IGridView grid)
      {
         //The returned character
         char rc;
@@ -54,17 +52,17 @@ public class HardAI implements IAI {
             if(currentMove != (j+2)%4)
             {
                 //If this move leads to go over the border, we forbid it
-                if((y > 0 && j == 0) || (x < 99 && j == 1) || (y < 99 && j == 2) || (x > 0 && j == 3))
+                if((y > 0 && j == 0) || (x < grid.getWidth() - 1 && j == 1) || (y < grid.getHeight() - 1 && j == 2) || (x > 0 && j == 3))
                 {
                     //Get the next tile to reach after the move, and its freshness (although the latter is not really used here. I wonder why there's no warning)
                     int targetTile = 0;
                     int targetTimer = 0;
                     switch(j)
                     {
-                        case 0 : targetTile = iGrid[x][y-1]; targetTimer = iTimer[x][y-1]; break;
-                        case 1 : targetTile = iGrid[x+1][y]; targetTimer = iTimer[x+1][y];break;
-                        case 2 : targetTile = iGrid[x][y+1]; targetTimer = iTimer[x][y+1];break;
-                        case 3 : targetTile = iGrid[x-1][y]; targetTimer = iTimer[x-1][y];break;
+                        case 0 : targetTile = grid.getCell(x, y-1); targetTimer = grid.getFreshness(x, y-1); break;
+                        case 1 : targetTile = grid.getCell(x+1, y); targetTimer = grid.getFreshness(x+1, y);break;
+                        case 2 : targetTile = grid.getCell(x, y+1); targetTimer = grid.getFreshness(x, y+1);break;
+                        case 3 : targetTile = grid.getCell(x-1, y); targetTimer = grid.getFreshness(x-1, y);break;
                     }
                     
                     //If this tile is empty, we consider this as a valid move
@@ -125,19 +123,10 @@ public class HardAI implements IAI {
                 root.orientation = (currentMove+1)%4;     //Current orientation
                 root.Parent = null;												//Its parent (no-one for root)
                 root.Sons = new Node[4];									//An array for its 4 sons (1 will never be used)
-                root.isFreeTile = new boolean[100][100];	//The representation of the grid at this node (we just need to know it the tile is free or not, not the player id, that's why the boolean)
-                
-                //Fill the "node grid" with the current situation
-                for(int j = 0; j < 100; j++)
-                {
-                    for(int k = 0; k < 100; k++)
-                    {
-                        if(iGrid[j][k] == 0)
-                            root.isFreeTile[j][k] = true;
-                        else
-                            root.isFreeTile[j][k] = false;
-                    }
-                }
+
+                //The tiles already reached by the search, they count as occupied for every node (packed as x * height + y)
+                //The other tiles are read from the grid when needed, the grid is never copied
+                HashSet<Integer> takenTiles = new HashSet<Integer>();
 
 								//The best node so far is the root node, but that will rapidly change
                 Node bestNode = root;
@@ -178,11 +167,11 @@ public class HardAI implements IAI {
                     for(int j = 0; j < 4; j++)
                     {
                         //If this move makes us stay in the play area
-                        if(possibleMoves[j][0] >= 0 && possibleMoves[j][0] <= 99 && possibleMoves[j][1] >= 0 && possibleMoves[j][1] <= 99 && currentNode.isFreeTile[possibleMoves[j][0]][possibleMoves[j][1]]) 
+                        if(possibleMoves[j][0] >= 0 && possibleMoves[j][0] < grid.getWidth() && possibleMoves[j][1] >= 0 && possibleMoves[j][1] < grid.getHeight() && !takenTiles.contains(possibleMoves[j][0] * grid.getHeight() + possibleMoves[j][1])) 
                         {
 
 														//And this move leads to an empty tile
-                            if(iGrid[possibleMoves[j][0]][possibleMoves[j][1]] == 0)
+                            if(grid.getCell(possibleMoves[j][0], possibleMoves[j][1]) == 0)
                             {
                                 
                                 //Then we consider it as a valid option, and build a new node.
@@ -194,9 +183,8 @@ public class HardAI implements IAI {
                                 newNode.Sons = new Node[4];
                                 newNode.Parent = currentNode;
                                 
-                                //Copy the state of the grid from the previous node, except the current position, which is now occupied
-                                newNode.isFreeTile = Arrays.copyOf(currentNode.isFreeTile, 100*100);
-                                newNode.isFreeTile[newNode.x][newNode.y] = false;
+                                //The new position is now occupied
+                                takenTiles.add(newNode.x * grid.getHeight() + newNode.y);
 
                                 //Link this node to its parent
                                 currentNode.Sons[j] = newNode;
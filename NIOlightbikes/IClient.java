@@ -1,5 +1,4 @@
 import java.rmi.RemoteException;
-import java.util.Collection;
 
 /**
  * The client interface (stub)
@@ -8,14 +7,14 @@ import java.util.Collection;
 public interface IClient extends java.rmi.Remote{
     void hello() throws RemoteException;
 
-    void updateGame(int score, int[][] grid, boolean isGameOver, String winnerName) throws RemoteException;
+    long updateGame(int playerNumber, int score, GameFrame frame, boolean isGameOver, String winnerName) throws RemoteException;
 
-    void updateLobbyPlayerList(Collection<String> playerList) throws RemoteException;
-
-    void updateLobbyTimer(int countDown) throws RemoteException;
+    void updateLobby(LobbyEnvelope envelope) throws RemoteException;
 
     void joinGame(boolean isSolo) throws RemoteException;
 
+    boolean spectateGame() throws RemoteException;
+
     void quitGame() throws RemoteException;
 
     void quitApp() throws RemoteException;
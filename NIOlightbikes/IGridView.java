@@ -0,0 +1,13 @@
+/**
+ * A read-only view of the game grid, given to the AIs instead of a copy of the grid
+ * @author Johan & Luther
+ */
+public interface IGridView {
+    int getWidth();
+
+    int getHeight();
+
+    int getCell(int x, int y);
+
+    int getFreshness(int x, int y);
+}
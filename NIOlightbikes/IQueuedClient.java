@@ -0,0 +1,10 @@
+/**
+ * The interface of the clients whose callbacks are queued by their transport and written later,
+ * a callback that returns only tells the message was queued, not that the client got it
+ * @author Johan & Luther
+ */
+public interface IQueuedClient {
+    int getQueuedBytes();
+    int getQueuedFrames();
+    double getFrameDelay();
+}
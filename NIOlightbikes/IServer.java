@@ -10,17 +10,27 @@ public interface IServer extends Remote {
 
     void createAccount(IClient client, String login, String password) throws RemoteException;
 
-    Long logIn(IClient client, String login, String password) throws RemoteException, AlreadyLoggedInException;
+    SessionTicket logIn(IClient client, String login, String password) throws RemoteException, AlreadyLoggedInException;
+
+    SessionTicket resumeSession(IClient client, long clientID, long resumeToken) throws RemoteException;
+
+    void suspendSession(IClient client, long clientID) throws RemoteException;
 
     void logOut(long clientID) throws RemoteException;
 
-    void joinGame(long clientID) throws RemoteException;
+    void joinGame(long clientID, ArenaConfig arena) throws RemoteException;
+
+    boolean spectateGame(long clientID) throws RemoteException;
 
     void quitGame(long clientID) throws RemoteException;
 
-    void setCurrentDirection(long clientID, char currentDirection) throws RemoteException;
+    void setCurrentDirection(long clientID, char currentDirection, long tick) throws RemoteException;
 
     char getCurrentDirection(long clientID) throws RemoteException;
 
     boolean isPlayerAlive(long clientID) throws RemoteException;
+
+    int getGameChannelPort() throws RemoteException;
+
+    long getServerTime() throws RemoteException;
 }
@@ -0,0 +1,7 @@
+/**
+ * The interface of the objects that want to know when the core completed a game tick
+ * @author Johan & Luther
+ */
+public interface ITickListener {
+    void tickCompleted(Core core);
+}
@@ -0,0 +1,58 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The state of a game lobby sent to its players: the player list and the start time of the game.
+ * The changes of a lobby are gathered and sent in one envelope per player per flush,
+ * so a burst of joins costs one callback per player instead of one per join.
+ * @author Johan & Luther
+ */
+public class LobbyEnvelope implements Serializable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    static final long serialVersionUID = 201610180002L;
+
+    // The logins of the players in the lobby
+    private final ArrayList<String> playerList;
+    // The server time at which the game starts (0 if no countdown)
+    private final long startTime;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a lobby envelope
+     * @param playerList The logins of the players in the lobby
+     * @param startTime The server time at which the game starts (0 if no countdown)
+     */
+    public LobbyEnvelope(Collection<String> playerList, long startTime){
+        this.playerList = new ArrayList<>(playerList);
+        this.startTime = startTime;
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the logins of the players in the lobby
+     * @return The logins of the players in the lobby
+     */
+    public List<String> getPlayerList() {
+        return playerList;
+    }
+
+    /**
+     * Returns the server time at which the game starts
+     * @return The server time at which the game starts (0 if no countdown)
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+}
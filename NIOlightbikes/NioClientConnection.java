@@ -0,0 +1,720 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client connected through the NIO transport, as seen by the server.
+ * Decodes the requests of the client and forwards them to the server, and turns the server callbacks into
+ * messages that are queued and written by the event loop, so a callback never blocks the calling thread.
+ * The requests are handled on the request workers in the order they were received, one at a time per connection,
+ * so a server call that blocks never holds up the event loop.
+ * The messages waiting to be written are bounded, a client that doesn't read them gets its callbacks refused.
+ * @author Johan & Luther
+ */
+public class NioClientConnection implements IClient, IQueuedClient {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    private static final int INITIAL_INBOUND_SIZE = 1024;
+    // Requests waiting for a worker, a client sending more is dropped
+    private static final int MAX_PENDING_REQUESTS = 256;
+    // Bytes waiting to be written, a callback that would go beyond is refused
+    private static final int MAX_OUTBOUND_BYTES = 512 * 1024;
+    private static final String LOCAL_ONLY_MESSAGE = "Not available on a remote client";
+
+    private final NioEventLoop eventLoop;
+    private final IServer server;
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    // Received bytes that don't form a complete message yet
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_INBOUND_SIZE);
+    // Complete requests waiting to be handled, and whether a worker is handling them
+    private final Executor requestExecutor;
+    private final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nbrOfRequests = new AtomicInteger();
+    private final AtomicBoolean handlingRequests = new AtomicBoolean(false);
+    // Whether the session was told the connection is lost
+    private boolean sessionReleased = false;
+    // Messages waiting to be written, and what the socket didn't accept of the last write
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboundBytes = new AtomicInteger();
+    private ByteBuffer unsent;
+    // When each frame not written yet was queued, in ns, and the frames in the unsent bytes
+    private final Queue<Long> frameQueuedAt = new ConcurrentLinkedQueue<>();
+    private int unsentFrames = 0;
+    // Time the last written frame waited in the queue, in ms
+    private volatile double lastFrameDelay = 0;
+    // The answer to the hello in flight (null if none was sent yet)
+    private CompletableFuture<Void> helloReply;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    // The client ID given by the server once logged in
+    private volatile Long clientID;
+    // Whether the client detected a gap in the frames it received
+    private volatile boolean keyframeRequested = false;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a new connection
+     * @param eventLoop The event loop serving the connection
+     * @param server The server to which the requests are forwarded
+     * @param channel The channel of the connection
+     * @param requestExecutor The workers handling the requests
+     */
+    public NioClientConnection(NioEventLoop eventLoop, IServer server, SocketChannel channel, Executor requestExecutor){
+        this.eventLoop = eventLoop;
+        this.server = server;
+        this.channel = channel;
+        this.requestExecutor = requestExecutor;
+    }
+
+    //=========================
+    //=== READING FUNCTIONS ===
+    //=========================
+
+    /**
+     * Appends received bytes and hands every complete message over to the request workers
+     * Only called by the event loop
+     * @param data The received bytes
+     */
+    void receive(ByteBuffer data){
+        if(inbound.remaining() < data.remaining()){
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(inbound.capacity() * 2, inbound.position() + data.remaining()));
+            inbound.flip();
+            bigger.put(inbound);
+            inbound = bigger;
+        }
+        inbound.put(data);
+        inbound.flip();
+
+        while(inbound.remaining() >= NioMessage.HEADER_LENGTH){
+            int length = inbound.getInt(inbound.position());
+            if(length <= 0 || length > NioMessage.MAX_LENGTH){
+                System.out.println("NIO client sent an invalid message length " + length);
+                close();
+                return;
+            }
+            if(inbound.remaining() < NioMessage.HEADER_LENGTH + length){
+                break;
+            }
+            // The answer to a hello doesn't wait behind the requests, a busy server isn't a lost client
+            if(inbound.get(inbound.position() + NioMessage.HEADER_LENGTH) == NioMessage.HELLO_REPLY){
+                inbound.position(inbound.position() + NioMessage.HEADER_LENGTH + length);
+                helloAnswered();
+                continue;
+            }
+            if(nbrOfRequests.incrementAndGet() > MAX_PENDING_REQUESTS){
+                System.out.println("NIO client sent more than " + MAX_PENDING_REQUESTS + " requests at once");
+                close();
+                return;
+            }
+            inbound.position(inbound.position() + NioMessage.HEADER_LENGTH);
+            // Copied, the inbound buffer is compacted before the worker reads the message
+            ByteBuffer message = ByteBuffer.allocate(length);
+            ByteBuffer slice = inbound.slice();
+            slice.limit(length);
+            message.put(slice);
+            message.flip();
+            inbound.position(inbound.position() + length);
+            requests.add(message);
+        }
+        inbound.compact();
+        scheduleRequests();
+    }
+
+    /**
+     * Hands the connection over to a worker unless one is already handling its requests
+     */
+    private void scheduleRequests(){
+        if(handlingRequests.compareAndSet(false, true)){
+            requestExecutor.execute(this::handleRequests);
+        }
+    }
+
+    /**
+     * Handles the pending requests in order, then tells the server the connection is lost if it was closed
+     * Only run by one worker at a time
+     */
+    private void handleRequests(){
+        while(true){
+            ByteBuffer message;
+            while((message = requests.poll()) != null){
+                nbrOfRequests.decrementAndGet();
+                dispatch(message);
+            }
+            if(closed && !sessionReleased){
+                sessionReleased = true;
+                releaseSession();
+            }
+            handlingRequests.set(false);
+            // Work that came after the last check, unless another worker took it already
+            if(!hasPendingWork() || !handlingRequests.compareAndSet(false, true)){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether there are requests to handle or a lost connection to report
+     * @return Whether a worker has something to do
+     */
+    private boolean hasPendingWork(){
+        return !requests.isEmpty() || (closed && !sessionReleased);
+    }
+
+    /**
+     * Forwards a request of the client to the server
+     * Only called by the worker handling the requests
+     * @param message The request
+     */
+    private void dispatch(ByteBuffer message){
+        byte opcode = message.get();
+        try {
+            switch (opcode){
+                case NioMessage.CREATE_ACCOUNT: {
+                    String login = NioMessage.getString(message);
+                    String password = NioMessage.getString(message);
+                    server.createAccount(this, login, password);
+                    break;
+                }
+                case NioMessage.LOG_IN: {
+                    int callID = message.getInt();
+                    String login = NioMessage.getString(message);
+                    String password = NioMessage.getString(message);
+                    NioMessage reply = new NioMessage(NioMessage.REPLY).putInt(callID);
+                    try {
+                        SessionTicket ticket = server.logIn(this, login, password);
+                        putTicket(reply.putByte(NioMessage.STATUS_OK), ticket);
+                    } catch (AlreadyLoggedInException e) {
+                        reply.putByte(NioMessage.STATUS_ALREADY_LOGGED_IN).putString(login);
+                    }
+                    send(reply.toBuffer());
+                    break;
+                }
+                case NioMessage.RESUME_SESSION: {
+                    int callID = message.getInt();
+                    SessionTicket ticket = server.resumeSession(this, message.getLong(), message.getLong());
+                    send(putTicket(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK), ticket)
+                            .toBuffer());
+                    break;
+                }
+                case NioMessage.LOG_OUT:
+                    if(clientID != null){
+                        server.logOut(clientID);
+                        clientID = null;
+                    }
+                    break;
+                case NioMessage.JOIN_GAME: {
+                    boolean hasArena = NioMessage.getBoolean(message);
+                    int width = message.getInt();
+                    int height = message.getInt();
+                    int nbrOfPlayers = message.getInt();
+                    if(clientID != null){
+                        ArenaConfig arena = null;
+                        try {
+                            arena = hasArena ? new ArenaConfig(width, height, nbrOfPlayers) : null;
+                        } catch (IllegalArgumentException e) {
+                            // Played in the default arena
+                            System.out.println("NIO client asked for an invalid arena: " + e.getMessage());
+                        }
+                        server.joinGame(clientID, arena);
+                    }
+                    break;
+                }
+                case NioMessage.SPECTATE_GAME: {
+                    int callID = message.getInt();
+                    boolean watching = clientID != null && server.spectateGame(clientID);
+                    send(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK)
+                            .putBoolean(watching).toBuffer());
+                    break;
+                }
+                case NioMessage.QUIT_GAME:
+                    if(clientID != null){
+                        server.quitGame(clientID);
+                    }
+                    break;
+                case NioMessage.SET_DIRECTION:
+                    if(clientID != null){
+                        server.setCurrentDirection(clientID, message.getChar(), message.getLong());
+                    }
+                    break;
+                case NioMessage.GET_DIRECTION: {
+                    int callID = message.getInt();
+                    char direction = clientID != null ? server.getCurrentDirection(clientID) : ' ';
+                    send(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK)
+                            .putChar(direction).toBuffer());
+                    break;
+                }
+                case NioMessage.IS_PLAYER_ALIVE: {
+                    int callID = message.getInt();
+                    boolean alive = clientID != null && server.isPlayerAlive(clientID);
+                    send(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK)
+                            .putBoolean(alive).toBuffer());
+                    break;
+                }
+                case NioMessage.GET_GAME_CHANNEL_PORT: {
+                    int callID = message.getInt();
+                    send(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK)
+                            .putInt(server.getGameChannelPort()).toBuffer());
+                    break;
+                }
+                case NioMessage.GET_SERVER_TIME: {
+                    int callID = message.getInt();
+                    send(new NioMessage(NioMessage.REPLY).putInt(callID).putByte(NioMessage.STATUS_OK)
+                            .putLong(server.getServerTime()).toBuffer());
+                    break;
+                }
+                case NioMessage.REQUEST_KEYFRAME:
+                    keyframeRequested = true;
+                    break;
+                default:
+                    System.out.println("NIO client sent an unknown opcode " + opcode);
+                    break;
+            }
+        } catch (RemoteException e) {
+            System.out.println("Exception in NioClientConnection " + e.getMessage());
+        } catch (BufferUnderflowException e) {
+            System.out.println("NIO client sent a truncated message, opcode " + opcode);
+            close();
+        } catch (RuntimeException e) {
+            // Only this connection is dropped, the other connections of the event loop go on
+            System.out.println("Exception in NioClientConnection while handling opcode " + opcode + ": " + e);
+            close();
+        }
+    }
+
+    /**
+     * Appends a session ticket to a reply, and binds the connection to the session if there is one
+     * @param reply The reply
+     * @param ticket The session ticket (null if none)
+     * @return The reply
+     */
+    private NioMessage putTicket(NioMessage reply, SessionTicket ticket){
+        if(ticket != null){
+            clientID = ticket.getClientID();
+        }
+        return reply.putBoolean(ticket != null)
+                .putLong(ticket != null ? ticket.getClientID() : 0)
+                .putLong(ticket != null ? ticket.getResumeToken() : 0);
+    }
+
+    //=========================
+    //=== WRITING FUNCTIONS ===
+    //=========================
+
+    /**
+     * Queues a message and asks the event loop to write it
+     * @param message The message
+     * @throws RemoteException If the connection is closed or the client doesn't read what was queued already
+     */
+    private void send(ByteBuffer message) throws RemoteException {
+        if(closed){
+            throw new RemoteException("Connection closed");
+        }
+        int size = message.remaining();
+        if(outboundBytes.addAndGet(size) > MAX_OUTBOUND_BYTES){
+            outboundBytes.addAndGet(-size);
+            throw new RemoteException("Client too slow, " + outboundBytes.get() + " bytes waiting to be written");
+        }
+        if(isFrame(message)){
+            frameQueuedAt.add(System.nanoTime());
+        }
+        outbound.add(message);
+        if(writeScheduled.compareAndSet(false, true)){
+            eventLoop.scheduleWrite(this);
+        }
+    }
+
+    /**
+     * Writes the queued messages, batching them in the given buffer
+     * Only called by the event loop
+     * @param writeBuffer The buffer of the event loop
+     * @return Whether everything was written
+     * @throws IOException
+     */
+    boolean flush(ByteBuffer writeBuffer) throws IOException {
+        while(true){
+            // Finish the previous write first
+            if(unsent != null){
+                channel.write(unsent);
+                if(unsent.hasRemaining()){
+                    return false;
+                }
+                unsent = null;
+                framesWritten(unsentFrames);
+                unsentFrames = 0;
+            }
+
+            // Batch as many messages as possible
+            writeBuffer.clear();
+            int batchFrames = 0;
+            ByteBuffer next;
+            while((next = outbound.peek()) != null && next.remaining() <= writeBuffer.remaining()){
+                if(isFrame(next)){
+                    batchFrames++;
+                }
+                outboundBytes.addAndGet(-next.remaining());
+                writeBuffer.put(next);
+                outbound.poll();
+            }
+
+            if(writeBuffer.position() == 0){
+                // Either nothing is left, or the next message is bigger than the buffer
+                unsent = outbound.poll();
+                if(unsent == null){
+                    return true;
+                }
+                unsentFrames = isFrame(unsent) ? 1 : 0;
+                outboundBytes.addAndGet(-unsent.remaining());
+                continue;
+            }
+
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            if(writeBuffer.hasRemaining()){
+                // Keep what the socket didn't accept, the buffer belongs to the event loop
+                unsent = ByteBuffer.allocate(writeBuffer.remaining());
+                unsent.put(writeBuffer);
+                unsent.flip();
+                unsentFrames = batchFrames;
+                return false;
+            }
+            framesWritten(batchFrames);
+        }
+    }
+
+    /**
+     * Records how long the frames the socket just accepted waited in the queue
+     * Only called by the event loop
+     * @param nbrOfFrames The number of frames written, the oldest ones of the queue
+     */
+    private void framesWritten(int nbrOfFrames){
+        long now = System.nanoTime();
+        for(int i = 0; i < nbrOfFrames; i++){
+            Long queuedAt = frameQueuedAt.poll();
+            if(queuedAt != null){
+                lastFrameDelay = (now - queuedAt) / 1000000.0;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a queued message is a game frame
+     * @param message The message, not written yet
+     * @return Whether the message is a game frame
+     */
+    private static boolean isFrame(ByteBuffer message){
+        return message.get(message.position() + NioMessage.HEADER_LENGTH) == NioMessage.UPDATE_GAME;
+    }
+
+    /**
+     * Lets other threads schedule a write again, unless messages were queued in the meantime
+     * Only called by the event loop
+     */
+    void writeCompleted(){
+        writeScheduled.set(false);
+        if(!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)){
+            eventLoop.scheduleWrite(this);
+        }
+    }
+
+    /**
+     * Closes the connection and suspends the session of the client, the client can resume it from a new connection
+     * The session is suspended by a worker after the requests received before, the server may be busy
+     */
+    void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(key != null){
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Exception in NioClientConnection " + e.getMessage());
+        }
+        synchronized (this) {
+            if(helloReply != null){
+                helloReply.completeExceptionally(new IOException("Connection closed"));
+            }
+        }
+        scheduleRequests();
+    }
+
+    /**
+     * Suspends the session bound to the connection, if any
+     * Only called by the worker handling the requests
+     */
+    private void releaseSession(){
+        Long sessionID = clientID;
+        if(sessionID != null){
+            try {
+                server.suspendSession(this, sessionID);
+            } catch (RemoteException e) {
+                System.out.println("Exception in NioClientConnection " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.out.println("Exception in NioClientConnection " + e);
+            }
+        }
+    }
+
+    //========================
+    //=== CLIENT CALLBACKS ===
+    //========================
+
+    /**
+     * Checks that the client is still there, waits for its answer at most HELLO_TIMEOUT
+     * A hello sent while another one is in flight waits for the same answer
+     * @throws RemoteException If the connection is closed or the client didn't answer in time
+     */
+    @Override
+    public void hello() throws RemoteException {
+        CompletableFuture<Void> reply;
+        boolean isNewHello = false;
+        synchronized (this) {
+            if(helloReply == null || helloReply.isDone()){
+                helloReply = new CompletableFuture<>();
+                isNewHello = true;
+            }
+            reply = helloReply;
+        }
+        if(isNewHello){
+            try {
+                send(new NioMessage(NioMessage.HELLO).toBuffer());
+            } catch (RemoteException e) {
+                reply.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            reply.get(RmiServer.HELLO_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RemoteException("No answer to the hello", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the hello", e);
+        }
+    }
+
+    /**
+     * Completes the hello in flight, if any
+     * Only called by the event loop
+     */
+    private synchronized void helloAnswered(){
+        if(helloReply != null){
+            helloReply.complete(null);
+        }
+    }
+
+    /**
+     * Sends a game frame to the client
+     * TCP delivers the frames in order, so the frame is acknowledged as soon as it is queued,
+     * unless the client reported a gap since the last frame
+     * Queuing it doesn't prove the client is there, only an answered hello does
+     * @param playerNumber The number of the player in the game
+     * @param score The current score
+     * @param frame The frame to apply to the grid
+     * @param isGameOver Whether the game is over
+     * @param winnerName The name of the winner
+     * @return The tick the client will be at (-1 to send a keyframe)
+     * @throws RemoteException If the connection is closed
+     */
+    @Override
+    public long updateGame(int playerNumber, int score, GameFrame frame, boolean isGameOver, String winnerName) throws RemoteException {
+        boolean resync = keyframeRequested && !frame.isKeyframe();
+        keyframeRequested = false;
+        send(new NioMessage(NioMessage.UPDATE_GAME).putByte((byte) playerNumber).putInt(score).putBytes(frame.getEncoded())
+                .putBoolean(isGameOver).putString(winnerName).toBuffer());
+        return resync ? -1 : frame.getTick();
+    }
+
+    /**
+     * Sends the state of the lobby to the client
+     * @param envelope The player list and the start time of the game
+     * @throws RemoteException If the connection is closed
+     */
+    @Override
+    public void updateLobby(LobbyEnvelope envelope) throws RemoteException {
+        NioMessage message = new NioMessage(NioMessage.UPDATE_LOBBY).putInt(envelope.getPlayerList().size());
+        for(String login : envelope.getPlayerList()){
+            message.putString(login);
+        }
+        send(message.putLong(envelope.getStartTime()).toBuffer());
+    }
+
+    /**
+     * Tells the client whether its account was created
+     * @param seccus Whether the account was created
+     */
+    @Override
+    public void createAccountOrNot(boolean seccus) {
+        try {
+            send(new NioMessage(NioMessage.CREATE_ACCOUNT_RESULT).putBoolean(seccus).toBuffer());
+        } catch (RemoteException e) {
+            System.out.println("Exception in NioClientConnection " + e.getMessage());
+        }
+    }
+
+    //========================
+    //=== CLIENT-SIDE ONLY ===
+    //========================
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public void joinGame(boolean isSolo) throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public boolean spectateGame() throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public void quitGame() throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public void quitApp() throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public void setCurrentDirection(char currentDirection) throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public boolean logIn(String login, String pwd) throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public char getCurrentDirection() throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public boolean isPlayerAlive() throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    /**
+     * Only available on the client side
+     * @throws RemoteException Always
+     */
+    @Override
+    public void createAccount(String login, String pwd) throws RemoteException {
+        throw new RemoteException(LOCAL_ONLY_MESSAGE);
+    }
+
+    //=========================
+    //=== GETTERS & SETTERS ===
+    //=========================
+
+    /**
+     * Returns the number of bytes waiting to be written
+     * @return The number of bytes waiting to be written
+     */
+    @Override
+    public int getQueuedBytes() {
+        return outboundBytes.get();
+    }
+
+    /**
+     * Returns the number of frames not written yet
+     * @return The number of frames not written yet
+     */
+    @Override
+    public int getQueuedFrames() {
+        return frameQueuedAt.size();
+    }
+
+    /**
+     * Returns how long the frames wait before being written, the oldest frame still waiting counts too
+     * @return The time the frames wait in the queue, in ms
+     */
+    @Override
+    public double getFrameDelay() {
+        Long oldest = frameQueuedAt.peek();
+        double oldestDelay = oldest != null ? (System.nanoTime() - oldest) / 1000000.0 : 0;
+        return Math.max(lastFrameDelay, oldestDelay);
+    }
+
+    /**
+     * Returns the channel of the connection
+     * @return The channel of the connection
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the selection key of the connection
+     * @return The selection key of the connection
+     */
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Sets the selection key of the connection
+     * @param key The selection key of the connection
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * An event loop of the NIO transport. A single thread serves all the connections registered
+ * on its selector, using one direct buffer for all the reads and one for all the writes.
+ * @author Johan & Luther
+ */
+public class NioEventLoop implements Runnable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final IServer server;
+    private final Selector selector;
+    // Handles the requests of the connections, the loop only does the I/O
+    private final Executor requestExecutor;
+
+    // Reused by every connection of this loop
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // Work handed over by other threads
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioClientConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a new event loop
+     * @param server The server to which the client requests are forwarded
+     * @param requestExecutor The workers handling the client requests
+     * @throws IOException
+     */
+    public NioEventLoop(IServer server, Executor requestExecutor) throws IOException {
+        this.server = server;
+        this.requestExecutor = requestExecutor;
+        this.selector = Selector.open();
+    }
+
+    //==============================
+    //=== REGISTRATION FUNCTIONS ===
+    //==============================
+
+    /**
+     * Lets this loop accept the connections of a server channel
+     * Must be called before the loop is started
+     * @param serverChannel The server channel
+     * @param nioServer The NIO server that handles the new connections
+     * @throws ClosedChannelException
+     */
+    void registerAcceptor(ServerSocketChannel serverChannel, NioServer nioServer) throws ClosedChannelException {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT, nioServer);
+    }
+
+    /**
+     * Hands a new connection over to this loop
+     * @param channel The channel of the new connection
+     */
+    void register(SocketChannel channel){
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks this loop to write the pending messages of a connection
+     * @param connection The connection
+     */
+    void scheduleWrite(NioClientConnection connection){
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    //======================
+    //=== LOOP FUNCTIONS ===
+    //======================
+
+    /**
+     * Runs the event loop
+     */
+    @Override
+    public void run(){
+        while(selector.isOpen()){
+            try {
+                selector.select();
+                registerPendingChannels();
+                writePendingConnections();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        ((NioServer) key.attachment()).accept();
+                    }
+                    else {
+                        NioClientConnection connection = (NioClientConnection) key.attachment();
+                        try {
+                            if(key.isReadable()){
+                                read(connection);
+                            }
+                            if(key.isValid() && key.isWritable()){
+                                write(connection);
+                            }
+                        } catch (RuntimeException e) {
+                            // Only this connection is dropped, the loop keeps serving the others
+                            System.out.println("Exception in NioEventLoop " + e);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Exception in NioEventLoop " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the connections handed over by the acceptor
+     */
+    private void registerPendingChannels(){
+        SocketChannel channel;
+        while((channel = pendingChannels.poll()) != null){
+            try {
+                NioClientConnection connection = new NioClientConnection(this, server, channel, requestExecutor);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                System.out.println("Exception in NioEventLoop " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the messages queued by other threads
+     */
+    private void writePendingConnections(){
+        NioClientConnection connection;
+        while((connection = pendingWrites.poll()) != null){
+            try {
+                if(connection.getKey().isValid()){
+                    write(connection);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Exception in NioEventLoop " + e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Reads what a connection received and hands the complete messages over to the workers
+     * @param connection The connection
+     */
+    private void read(NioClientConnection connection){
+        readBuffer.clear();
+        int read;
+        try {
+            read = connection.getChannel().read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if(read < 0){
+            connection.close();
+            return;
+        }
+        readBuffer.flip();
+        connection.receive(readBuffer);
+    }
+
+    /**
+     * Writes as many queued messages of a connection as the socket accepts
+     * @param connection The connection
+     */
+    private void write(NioClientConnection connection){
+        try {
+            if(connection.flush(writeBuffer)){
+                // Everything was written, stop waiting for the socket
+                connection.getKey().interestOps(SelectionKey.OP_READ);
+                connection.writeCompleted();
+            }
+            else {
+                // Wait for the socket to accept more
+                connection.getKey().interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+}
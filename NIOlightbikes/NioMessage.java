@@ -0,0 +1,213 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A length-prefixed binary message of the NIO transport.
+ * On the wire, a message is its length (int, not counting itself), its opcode (byte) and its payload.
+ * @author Johan & Luther
+ */
+public class NioMessage {
+
+    //===============
+    //=== OPCODES ===
+    //===============
+
+    // Client to server
+    public static final byte CREATE_ACCOUNT = 1;
+    public static final byte LOG_IN = 2;
+    public static final byte LOG_OUT = 3;
+    public static final byte JOIN_GAME = 4;
+    public static final byte QUIT_GAME = 5;
+    public static final byte SET_DIRECTION = 6;
+    public static final byte GET_DIRECTION = 7;
+    public static final byte IS_PLAYER_ALIVE = 8;
+    public static final byte REQUEST_KEYFRAME = 9;
+    public static final byte GET_GAME_CHANNEL_PORT = 10;
+    public static final byte GET_SERVER_TIME = 11;
+    public static final byte RESUME_SESSION = 12;
+    public static final byte SPECTATE_GAME = 13;
+    public static final byte HELLO_REPLY = 14;
+
+    // Server to client
+    public static final byte REPLY = 64;
+    public static final byte HELLO = 65;
+    public static final byte UPDATE_GAME = 66;
+    public static final byte UPDATE_LOBBY = 67;
+    public static final byte CREATE_ACCOUNT_RESULT = 69;
+
+    // Reply status
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ALREADY_LOGGED_IN = 1;
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Biggest accepted message (length prefix excluded)
+    public static final int MAX_LENGTH = 1 << 20;
+    // Size of the length prefix
+    public static final int HEADER_LENGTH = 4;
+
+    private ByteBuffer buffer;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Starts a new message
+     * @param opcode The opcode of the message
+     */
+    public NioMessage(byte opcode){
+        buffer = ByteBuffer.allocate(64);
+        buffer.putInt(0);
+        buffer.put(opcode);
+    }
+
+    //=======================
+    //=== WRITE FUNCTIONS ===
+    //=======================
+
+    /**
+     * Makes sure the buffer can hold a given number of additional bytes
+     * @param size The number of additional bytes
+     */
+    private void ensureCapacity(int size){
+        if(buffer.remaining() < size){
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    /**
+     * Appends a byte
+     * @param value The byte
+     * @return The message
+     */
+    public NioMessage putByte(byte value){
+        ensureCapacity(1);
+        buffer.put(value);
+        return this;
+    }
+
+    /**
+     * Appends a boolean
+     * @param value The boolean
+     * @return The message
+     */
+    public NioMessage putBoolean(boolean value){
+        return putByte((byte) (value ? 1 : 0));
+    }
+
+    /**
+     * Appends a char
+     * @param value The char
+     * @return The message
+     */
+    public NioMessage putChar(char value){
+        ensureCapacity(2);
+        buffer.putChar(value);
+        return this;
+    }
+
+    /**
+     * Appends an int
+     * @param value The int
+     * @return The message
+     */
+    public NioMessage putInt(int value){
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    /**
+     * Appends a long
+     * @param value The long
+     * @return The message
+     */
+    public NioMessage putLong(long value){
+        ensureCapacity(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    /**
+     * Appends a byte array, prefixed by its length
+     * @param value The byte array
+     * @return The message
+     */
+    public NioMessage putBytes(byte[] value){
+        ensureCapacity(4 + value.length);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        return this;
+    }
+
+    /**
+     * Appends a string, UTF-8 encoded and prefixed by its length
+     * @param value The string
+     * @return The message
+     */
+    public NioMessage putString(String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+
+    /**
+     * Completes the message
+     * @return The message, ready to be written on a channel
+     */
+    public ByteBuffer toBuffer(){
+        buffer.putInt(0, buffer.position() - HEADER_LENGTH);
+        buffer.flip();
+        return buffer;
+    }
+
+    //======================
+    //=== READ FUNCTIONS ===
+    //======================
+
+    /**
+     * Reads a boolean from a received message
+     * @param in The received message
+     * @return The boolean
+     */
+    public static boolean getBoolean(ByteBuffer in){
+        return in.get() != 0;
+    }
+
+    /**
+     * Reads a byte array from a received message
+     * @param in The received message
+     * @return The byte array
+     * @throws BufferUnderflowException If the length doesn't fit in the rest of the message
+     */
+    public static byte[] getBytes(ByteBuffer in){
+        int length = in.getInt();
+        // Checked before allocating, a corrupt length must not cost a huge array
+        if(length < 0 || length > in.remaining()){
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a string from a received message
+     * @param in The received message
+     * @return The string
+     */
+    public static String getString(ByteBuffer in){
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NIO transport of the server, an alternative to RMI.
+ * Accepts the client connections and spreads them over a small number of event loops.
+ * The requests of the clients are handled by a pool of workers, as the server calls may block.
+ * @author Johan & Luther
+ */
+public class NioServer {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    private static final int WORKERS_PER_PROCESSOR = 2;
+
+    private final ServerSocketChannel serverChannel;
+    private final NioEventLoop[] eventLoops;
+    private final ExecutorService requestExecutor;
+    // Index of the event loop that will get the next connection
+    private int nextEventLoop = 0;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a new NIO server, one event loop per processor
+     * @param server The server to which the client requests are forwarded
+     * @param port The port to listen on
+     * @throws IOException
+     */
+    public NioServer(IServer server, int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        AtomicInteger workerCount = new AtomicInteger();
+        requestExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * WORKERS_PER_PROCESSOR,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "nio-worker-" + workerCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        eventLoops = new NioEventLoop[Runtime.getRuntime().availableProcessors()];
+        for(int i = 0; i < eventLoops.length; i++){
+            eventLoops[i] = new NioEventLoop(server, requestExecutor);
+        }
+        // The first event loop also accepts the new connections
+        eventLoops[0].registerAcceptor(serverChannel, this);
+    }
+
+    //========================
+    //=== SERVER FUNCTIONS ===
+    //========================
+
+    /**
+     * Starts the event loops
+     */
+    public void start(){
+        for(int i = 0; i < eventLoops.length; i++){
+            Thread loopThread = new Thread(eventLoops[i], "nio-loop-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+    }
+
+    /**
+     * Accepts a pending connection and hands it to an event loop
+     * Only called by the event loop that owns the server channel
+     */
+    void accept(){
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if(channel != null){
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                eventLoops[nextEventLoop].register(channel);
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            }
+        } catch (IOException e) {
+            System.out.println("Exception in NioServer " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of event loops
+     * @return The number of event loops
+     */
+    public int getNbrOfEventLoops(){
+        return eventLoops.length;
+    }
+}
@@ -0,0 +1,509 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server as seen by a client connected through the NIO transport.
+ * Turns the server calls into messages, waits for the replies of the calls that return something,
+ * and hands the server callbacks over to the client in the order they were received.
+ * When the connection is lost while logged in, reconnects and resumes the session with the ticket given at login.
+ * @author Johan & Luther
+ */
+public class NioServerProxy implements IServer {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Time to wait for the reply of a call
+    private static final int CALL_TIMEOUT = 10000;
+    // Attempts to reconnect after the connection was lost, and the time between two attempts
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private static final int RECONNECT_DELAY = 2000;
+
+    private final String serverIP;
+    private final int port;
+    private volatile SocketChannel channel;
+    private final Object writeLock = new Object();
+    // The client receiving the callbacks
+    private volatile IClient client;
+    // The ticket of the current session (null if not logged in), and whether to resume it when the connection is lost
+    private volatile SessionTicket ticket;
+    private volatile boolean resumeOnLoss = false;
+
+    // Calls waiting for their reply, by call ID
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCallID = new AtomicInteger();
+    // Runs the callbacks, so a slow callback never delays the replies
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nio-callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Connects to a NIO server
+     * @param serverIP The IP of the server
+     * @param port The NIO port of the server
+     * @throws IOException
+     */
+    public NioServerProxy(String serverIP, int port) throws IOException {
+        this.serverIP = serverIP;
+        this.port = port;
+        connect();
+    }
+
+    /**
+     * Opens a connection to the server and starts reading it
+     * @throws IOException
+     */
+    private synchronized void connect() throws IOException {
+        SocketChannel newChannel = SocketChannel.open(new InetSocketAddress(serverIP, port));
+        newChannel.socket().setTcpNoDelay(true);
+        channel = newChannel;
+
+        Thread readerThread = new Thread(() -> readMessages(newChannel), "nio-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Reconnects to the server and resumes the session, a few times until the server is back
+     */
+    private void reconnect(){
+        for(int attempt = 1; attempt <= RECONNECT_ATTEMPTS && resumeOnLoss; attempt++){
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+                SessionTicket lostTicket = ticket;
+                if(lostTicket == null){
+                    return;
+                }
+                connect();
+                // A connection lost during the call is handled by the reader of the new connection
+                if(resumeSession(client, lostTicket.getClientID(), lostTicket.getResumeToken()) != null){
+                    System.out.println("Session resumed");
+                }
+                else {
+                    System.out.println("Session expired, please log in again");
+                }
+                return;
+            } catch (IOException e) {
+                System.out.println("Reconnection attempt " + attempt + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    //=========================
+    //=== READING FUNCTIONS ===
+    //=========================
+
+    /**
+     * Reads the messages of the server until the connection is closed, then resumes the session if logged in
+     * @param channel The connection to read
+     */
+    private void readMessages(SocketChannel channel){
+        ByteBuffer header = ByteBuffer.allocate(NioMessage.HEADER_LENGTH);
+        try {
+            while(true){
+                header.clear();
+                readFully(channel, header);
+                int length = header.getInt(0);
+                if(length <= 0 || length > NioMessage.MAX_LENGTH){
+                    throw new IOException("Invalid message length " + length);
+                }
+                ByteBuffer message = ByteBuffer.allocate(length);
+                readFully(channel, message);
+                message.flip();
+                dispatch(message);
+            }
+        } catch (IOException e) {
+            System.out.println("Connection to the server lost: " + e.getMessage());
+        }
+        // Fail the calls still waiting
+        for(CompletableFuture<ByteBuffer> pendingCall : pendingCalls.values()){
+            pendingCall.completeExceptionally(new IOException("Connection closed"));
+        }
+        // Resume the session, unless the connection was replaced already
+        if(channel == this.channel){
+            reconnect();
+        }
+    }
+
+    /**
+     * Fills a buffer from a channel
+     * @param channel The channel to read
+     * @param buffer The buffer to fill
+     * @throws IOException If the connection is closed
+     */
+    private void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer) < 0){
+                throw new IOException("Connection closed by the server");
+            }
+        }
+    }
+
+    /**
+     * Completes a waiting call or hands a callback over to the client
+     * @param message The message
+     */
+    private void dispatch(ByteBuffer message){
+        byte opcode = message.get();
+        if(opcode == NioMessage.REPLY){
+            CompletableFuture<ByteBuffer> pendingCall = pendingCalls.remove(message.getInt());
+            if(pendingCall != null){
+                pendingCall.complete(message);
+            }
+        }
+        else {
+            if(opcode == NioMessage.HELLO){
+                // Answered by the reader at once, a busy display must not look like a lost connection
+                try {
+                    send(new NioMessage(NioMessage.HELLO_REPLY).toBuffer());
+                } catch (RemoteException e) {
+                    System.out.println("Client error: " + e.getMessage());
+                }
+            }
+            callbackExecutor.execute(() -> runCallback(opcode, message));
+        }
+    }
+
+    /**
+     * Runs a server callback on the client
+     * @param opcode The opcode of the callback
+     * @param message The rest of the message
+     */
+    private void runCallback(byte opcode, ByteBuffer message){
+        IClient target = client;
+        if(target == null){
+            return;
+        }
+        try {
+            switch (opcode){
+                case NioMessage.HELLO:
+                    target.hello();
+                    break;
+                case NioMessage.UPDATE_GAME: {
+                    int playerNumber = message.get();
+                    int score = message.getInt();
+                    GameFrame frame = GameFrame.decode(NioMessage.getBytes(message));
+                    boolean isGameOver = NioMessage.getBoolean(message);
+                    String winnerName = NioMessage.getString(message);
+                    // Let the server know when a gap was detected
+                    if(target.updateGame(playerNumber, score, frame, isGameOver, winnerName) < 0){
+                        send(new NioMessage(NioMessage.REQUEST_KEYFRAME).toBuffer());
+                    }
+                    break;
+                }
+                case NioMessage.UPDATE_LOBBY: {
+                    int size = message.getInt();
+                    List<String> playerList = new ArrayList<>(size);
+                    for(int i = 0; i < size; i++){
+                        playerList.add(NioMessage.getString(message));
+                    }
+                    target.updateLobby(new LobbyEnvelope(playerList, message.getLong()));
+                    break;
+                }
+                case NioMessage.CREATE_ACCOUNT_RESULT:
+                    target.createAccountOrNot(NioMessage.getBoolean(message));
+                    break;
+                default:
+                    System.out.println("Server sent an unknown opcode " + opcode);
+                    break;
+            }
+        } catch (IOException e) {
+            System.out.println("Client error: " + e.getMessage());
+        } catch (BufferUnderflowException e) {
+            System.out.println("Server sent a truncated message, opcode " + opcode);
+        }
+    }
+
+    //=========================
+    //=== WRITING FUNCTIONS ===
+    //=========================
+
+    /**
+     * Writes a message to the server
+     * @param message The message
+     * @throws RemoteException If the connection is lost
+     */
+    private void send(ByteBuffer message) throws RemoteException {
+        try {
+            synchronized (writeLock) {
+                while(message.hasRemaining()){
+                    channel.write(message);
+                }
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Connection to the server lost", e);
+        }
+    }
+
+    /**
+     * Starts a call that expects a reply
+     * @param opcode The opcode of the call
+     * @return The message, with its call ID, and the future reply
+     */
+    private PendingCall startCall(byte opcode){
+        int callID = nextCallID.incrementAndGet();
+        CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+        pendingCalls.put(callID, reply);
+        return new PendingCall(new NioMessage(opcode).putInt(callID), callID, reply);
+    }
+
+    /**
+     * A call waiting for its reply
+     */
+    private class PendingCall {
+        private final NioMessage message;
+        private final int callID;
+        private final CompletableFuture<ByteBuffer> reply;
+
+        private PendingCall(NioMessage message, int callID, CompletableFuture<ByteBuffer> reply){
+            this.message = message;
+            this.callID = callID;
+            this.reply = reply;
+        }
+
+        /**
+         * Sends the call and waits for the reply
+         * @return The reply, positioned after the status
+         * @throws RemoteException If the connection is lost or the server doesn't answer in time
+         */
+        private ByteBuffer send() throws RemoteException {
+            NioServerProxy.this.send(message.toBuffer());
+            try {
+                return reply.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                throw new RemoteException("No reply from the server", e);
+            } finally {
+                pendingCalls.remove(callID);
+            }
+        }
+    }
+
+    //======================
+    //=== STUB FUNCTIONS ===
+    //======================
+
+    /**
+     * Attempts to create an account, the result comes back as a callback
+     * @param client The client asking for the account
+     * @param login The login of the new account
+     * @param password The password of the new account
+     * @throws RemoteException
+     */
+    @Override
+    public void createAccount(IClient client, String login, String password) throws RemoteException {
+        this.client = client;
+        send(new NioMessage(NioMessage.CREATE_ACCOUNT).putString(login).putString(password).toBuffer());
+    }
+
+    /**
+     * Attempts to log in a user
+     * @param client The client trying to log in
+     * @param login The given login
+     * @param password The given password
+     * @return The ticket to resume the session, or null if the credentials are wrong
+     * @throws RemoteException
+     * @throws AlreadyLoggedInException
+     */
+    @Override
+    public SessionTicket logIn(IClient client, String login, String password) throws RemoteException, AlreadyLoggedInException {
+        this.client = client;
+        PendingCall call = startCall(NioMessage.LOG_IN);
+        call.message.putString(login).putString(password);
+        ByteBuffer reply = call.send();
+        if(reply.get() == NioMessage.STATUS_ALREADY_LOGGED_IN){
+            throw new AlreadyLoggedInException(NioMessage.getString(reply));
+        }
+        return readTicket(reply);
+    }
+
+    /**
+     * Resumes a session, on a new connection if the previous one was dropped
+     * @param client The client resuming its session
+     * @param clientID The client ID of the session
+     * @param resumeToken The resume token given at login
+     * @return The ticket of the resumed session, or null if the session is gone
+     * @throws RemoteException
+     */
+    @Override
+    public SessionTicket resumeSession(IClient client, long clientID, long resumeToken) throws RemoteException {
+        this.client = client;
+        // The connection was dropped on purpose
+        if(!channel.isOpen()){
+            try {
+                connect();
+            } catch (IOException e) {
+                throw new RemoteException("Server unreachable", e);
+            }
+        }
+        PendingCall call = startCall(NioMessage.RESUME_SESSION);
+        call.message.putLong(clientID).putLong(resumeToken);
+        ByteBuffer reply = call.send();
+        reply.get();
+        return readTicket(reply);
+    }
+
+    /**
+     * Reads the session ticket of a reply, and remembers it to resume the session if the connection is lost
+     * @param reply The reply, positioned after the status
+     * @return The session ticket, or null if none
+     */
+    private SessionTicket readTicket(ByteBuffer reply){
+        boolean valid = NioMessage.getBoolean(reply);
+        long clientID = reply.getLong();
+        long resumeToken = reply.getLong();
+        ticket = valid ? new SessionTicket(clientID, resumeToken) : null;
+        resumeOnLoss = valid;
+        return ticket;
+    }
+
+    /**
+     * Drops the connection without logging out, the session can be resumed within the grace window
+     * @param client Unused, the connection identifies the client
+     * @param clientID Unused, the connection identifies the client
+     * @throws RemoteException
+     */
+    @Override
+    public void suspendSession(IClient client, long clientID) throws RemoteException {
+        resumeOnLoss = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RemoteException("Connection to the server lost", e);
+        }
+    }
+
+    /**
+     * Logs out from the server
+     * @param clientID Unused, the connection identifies the client
+     * @throws RemoteException
+     */
+    @Override
+    public void logOut(long clientID) throws RemoteException {
+        resumeOnLoss = false;
+        ticket = null;
+        send(new NioMessage(NioMessage.LOG_OUT).toBuffer());
+    }
+
+    /**
+     * Joins a game lobby
+     * @param clientID Unused, the connection identifies the client
+     * @param arena The arena to play in (null for the default arena of the server)
+     * @throws RemoteException
+     */
+    @Override
+    public void joinGame(long clientID, ArenaConfig arena) throws RemoteException {
+        send(new NioMessage(NioMessage.JOIN_GAME).putBoolean(arena != null)
+                .putInt(arena != null ? arena.getWidth() : 0)
+                .putInt(arena != null ? arena.getHeight() : 0)
+                .putInt(arena != null ? arena.getNbrOfPlayers() : 0).toBuffer());
+    }
+
+    /**
+     * Watches a game in progress as a spectator
+     * @param clientID Unused, the connection identifies the client
+     * @return Whether a game in progress was found
+     * @throws RemoteException
+     */
+    @Override
+    public boolean spectateGame(long clientID) throws RemoteException {
+        ByteBuffer reply = startCall(NioMessage.SPECTATE_GAME).send();
+        reply.get();
+        return NioMessage.getBoolean(reply);
+    }
+
+    /**
+     * Leaves the current game lobby
+     * @param clientID Unused, the connection identifies the client
+     * @throws RemoteException
+     */
+    @Override
+    public void quitGame(long clientID) throws RemoteException {
+        send(new NioMessage(NioMessage.QUIT_GAME).toBuffer());
+    }
+
+    /**
+     * Changes the moving direction of the player
+     * @param clientID Unused, the connection identifies the client
+     * @param currentDirection The new moving direction
+     * @param tick The tick seen by the client when the input was made (-1 if unknown)
+     * @throws RemoteException
+     */
+    @Override
+    public void setCurrentDirection(long clientID, char currentDirection, long tick) throws RemoteException {
+        send(new NioMessage(NioMessage.SET_DIRECTION).putChar(currentDirection).putLong(tick).toBuffer());
+    }
+
+    /**
+     * Returns the current moving direction of the player
+     * @param clientID Unused, the connection identifies the client
+     * @return The current moving direction of the player
+     * @throws RemoteException
+     */
+    @Override
+    public char getCurrentDirection(long clientID) throws RemoteException {
+        ByteBuffer reply = startCall(NioMessage.GET_DIRECTION).send();
+        reply.get();
+        return reply.getChar();
+    }
+
+    /**
+     * Returns whether the player is still alive in his current game
+     * @param clientID Unused, the connection identifies the client
+     * @return Whether the player is still alive in his current game
+     * @throws RemoteException
+     */
+    @Override
+    public boolean isPlayerAlive(long clientID) throws RemoteException {
+        ByteBuffer reply = startCall(NioMessage.IS_PLAYER_ALIVE).send();
+        reply.get();
+        return NioMessage.getBoolean(reply);
+    }
+
+    /**
+     * Returns the UDP port of the game channel
+     * @return The UDP port of the game channel (-1 if disabled)
+     * @throws RemoteException
+     */
+    @Override
+    public int getGameChannelPort() throws RemoteException {
+        ByteBuffer reply = startCall(NioMessage.GET_GAME_CHANNEL_PORT).send();
+        reply.get();
+        return reply.getInt();
+    }
+
+    /**
+     * Returns the server time
+     * @return The server time, in ms
+     * @throws RemoteException
+     */
+    @Override
+    public long getServerTime() throws RemoteException {
+        ByteBuffer reply = startCall(NioMessage.GET_SERVER_TIME).send();
+        reply.get();
+        return reply.getLong();
+    }
+}
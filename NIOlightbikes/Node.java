@@ -9,7 +9,6 @@ public class Node {
     int orientation;					//Orientation of the bikes for the last move
     Node[] Sons;							//Array of sons
     Node Parent;    					//Parent node
-    boolean[][] isFreeTile;		//Current representation of the grid (availability)
     
     //computes a hash code (needed for the HashSet inclusion)
     //Note that Sons and Parent are not taken into account. It's because I'm considering 
@@ -21,7 +20,6 @@ public class Node {
     	hashCode = 31 * hashCode + y;
     	hashCode = 31 * hashCode + distance;
     	hashCode = 31 * hashCode + orientation;
-    	hashCode = 31 * hashCode + java.util.Arrays.hashCode(isFreeTile);
     	return hashCode;
     }
     
@@ -40,8 +38,6 @@ public class Node {
     	   tf = false;
     	else if(this.orientation != b.orientation)
     	   tf = false;
-    	else if(!java.util.Arrays.equals(this.isFreeTile,b.isFreeTile))
-    	   tf = false;
     	return tf;
     }
     
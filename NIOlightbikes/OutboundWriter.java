@@ -0,0 +1,64 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The shared writer that delivers the queued callbacks of every client session.
+ * A session is drained by at most one writer thread at a time, so a slow client never holds more than one thread.
+ * The clients whose callbacks only queue messages share a fixed pool. The clients whose callbacks block until
+ * the client answered (RMI) are drained apart, so stalled clients can't take the threads of the healthy ones.
+ * @author Johan & Luther
+ */
+public class OutboundWriter {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    private static final int THREADS_PER_PROCESSOR = 2;
+
+    // Drains the sessions of the queued clients, their callbacks never block
+    private final ExecutorService executor;
+    // Drains the sessions of the other clients, one thread per session being drained
+    private final ExecutorService blockingExecutor;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates the shared writer
+     */
+    public OutboundWriter(){
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * THREADS_PER_PROCESSOR,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "outbound-writer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        AtomicInteger blockingThreadCount = new AtomicInteger();
+        blockingExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "blocking-writer-" + blockingThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //========================
+    //=== WRITER FUNCTIONS ===
+    //========================
+
+    /**
+     * Drains the outbound queue of a session on a writer thread
+     * @param clientSession The session to drain
+     */
+    public void schedule(ClientSession clientSession){
+        if(clientSession.getClient() instanceof IQueuedClient){
+            executor.execute(clientSession::drain);
+        }
+        else {
+            blockingExecutor.execute(clientSession::drain);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * What a game loop does when it wakes up late and more than one tick of a game is due
+ * Catching up is bounded in every case: past half a second of late ticks, the game is pushed back by the others
+ * @author Johan & Luther
+ */
+public enum OverrunPolicy {
+
+    /**
+     * Plays every due tick at once and sends a frame for each, the game keeps its speed
+     */
+    CATCH_UP,
+
+    /**
+     * Plays every due tick at once but only sends the frame of the last one, it covers the others
+     * The game keeps its speed and the late clients aren't flooded with frames
+     */
+    SKIP,
+
+    /**
+     * Plays a single tick and pushes the game back by the others, the game runs slower while the server is overloaded
+     */
+    SLOW
+}
@@ -1,10 +1,14 @@
 import java.awt.*;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class implements the client interface
@@ -22,10 +26,28 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
     private GuiMultiplayer guiMultiplayer;
     // The server stub
     private final IServer server;
+    // The IP of the server, for the game channel
+    private final String serverIP;
+    // The arena of the games, solo or multiplayer (null for the default arena of the server)
+    private final ArenaConfig arena;
+    // Sends the direction inputs over UDP when the server has a game channel
+    private UdpInputSender udpInputSender;
+    // Sends the direction inputs through the server stub otherwise, without blocking the keyboard
+    private final ExecutorService inputExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "input-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
     // The client ID given by the server
     private Long clientID;
+    // The resume token given by the server, signs the datagrams of the game channel
+    private long resumeToken;
+    // The offset between the server clock and the client clock
+    private final ClockSync clockSync = new ClockSync();
     // The core used when playing solo games
     private Core soloCore;
+    // Plays the ticks of the solo games
+    private final GameLoopScheduler soloLoop = new GameLoopScheduler(1);
     private final Collection<HumanPlayer> players;
     // The Human player representing the client when playing solo games
     private final HumanPlayer soloPlayer;
@@ -44,14 +66,19 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
     /**
      * Creates an RMI client
      * @param server The server stub
+     * @param serverIP The IP of the server
+     * @param arena The arena of the games (null for the default arena of the server)
      * @throws RemoteException
      * @throws InvocationTargetException
      * @throws éInterruptedException
      * @throws AlreadyLoggedInException
      */
-    public RmiClient(IServer server) throws RemoteException, InvocationTargetException, InterruptedException {
+    public RmiClient(IServer server, String serverIP, ArenaConfig arena)
+            throws RemoteException, InvocationTargetException, InterruptedException {
         super();
         this.server = server;
+        this.serverIP = serverIP;
+        this.arena = arena;
         System.out.println("Registered to server");
 
         //This are the GUI objects, responsible for all the displays
@@ -87,35 +114,37 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
 
     /**
      * Updates the game screen
+     * @param playerNumber The number of the player in the game
      * @param score The current score
-     * @param grid The current grid
+     * @param frame The frame to apply to the grid
      * @param isGameOver Whether the game is over
      * @param winnerName The name of the winner
+     * @return The last tick applied to the grid (-1 to ask for a keyframe)
      * @throws RemoteException
      */
     @Override
-    public void updateGame(int score, int[][] grid, boolean isGameOver, String winnerName) throws RemoteException {
-        gGUI.update(score, grid, isGameOver, winnerName);
+    public long updateGame(int playerNumber, int score, GameFrame frame, boolean isGameOver, String winnerName) throws RemoteException {
+        // Repeat the last turn in case its datagram was lost
+        if(udpInputSender != null && !goingSolo){
+            udpInputSender.resendRecent();
+        }
+        return gGUI.update(playerNumber, score, frame, isGameOver, winnerName);
     }
 
     /**
-     * Updates the player list of lobby screen
-     * @param playerList The new player list
+     * Updates the lobby screen: the player list, and the start time the lobby counts down to
+     * @param envelope The state of the lobby
      * @throws RemoteException
      */
     @Override
-    public void updateLobbyPlayerList(Collection<String> playerList) throws RemoteException {
+    public void updateLobby(LobbyEnvelope envelope) throws RemoteException {
+        List<String> playerList = envelope.getPlayerList();
         guiMultiplayer.updatePlayerList(playerList.toArray(new String[playerList.size()]));
-    }
-
-    /**
-     * Update the timer on the lobby screen
-     * @param countDown The current timer value
-     * @throws RemoteException
-     */
-    @Override
-    public void updateLobbyTimer(int countDown) throws RemoteException {
-        guiMultiplayer.updateTimer(countDown);
+        if(envelope.getStartTime() > 0){
+            long localStartTime = clockSync.toLocalTime(envelope.getStartTime());
+            gGUI.setGameStart(localStartTime);
+            guiMultiplayer.setGameStart(localStartTime);
+        }
     }
 
     /**
@@ -140,43 +169,32 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
             // Start solo game
             gGUI.ShowLoginGUI.setBackground(Color.RED);
             goingSolo = true;
-            soloCore = new Core(players);
-            // Lauch the solo core
-            Thread coreThread = new Thread() {
-                public void run() {
-                    final int gameNumber = gameCount;
-                    System.out.println("Start " + gameNumber);
-                    soloCore.runGame();
-                    System.out.println("End " + gameNumber);
-                }
-            };
-            coreThread.start();
-            // Launch the game update thread for the solo player
-            Thread gameThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    final int gameNumber = gameCount;
-                    System.out.println("Start updateGame " + gameNumber);
-                    while (soloCore.isGameInProgress() && gameNumber == gameCount) {
-                        try {
-                            Thread.sleep(50);
-                            if(gameNumber == gameCount){
-                                updateGame(soloPlayer.getScore(), soloCore.getGrid(),
-                                        !soloCore.isGameInProgress(), soloCore.getsWinnerName());
-                            }
-                        } catch (InterruptedException | RemoteException e) {
-                            e.printStackTrace();
-                        }
+            soloCore = new Core(players, arena != null ? arena : ArenaConfig.DEFAULT);
+            long startTime = soloLoop.alignToTimeline(System.currentTimeMillis());
+            soloCore.setStartTime(startTime);
+            gGUI.setGameStart(startTime);
+            // Update the screen right after each tick of the solo core
+            final int soloGameNumber = gameCount;
+            final long[] ackTick = {-1};
+            soloCore.setTickListener(core -> {
+                if(soloGameNumber == gameCount){
+                    try {
+                        int playerNumber = core.getPlayerNumber(soloPlayer);
+                        ackTick[0] = updateGame(playerNumber, soloPlayer.getScore(), core.getFrameSince(ackTick[0], playerNumber),
+                                !core.isGameInProgress(), core.getsWinnerName());
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
                     }
-                    System.out.println("End updateGame " + gameNumber);
                 }
             });
-            gameThread.start();
+            // Lauch the solo core
+            System.out.println("Start " + soloGameNumber);
+            soloLoop.schedule(soloCore, () -> System.out.println("End " + soloGameNumber));
         }
         else if(clientID != null){
             // Start multiplayer game
             goingSolo = false;
-            server.joinGame(clientID);
+            server.joinGame(clientID, arena);
             // Make the main gui unusable
             gGUI.setEnabled(false);
             gGUI.setVisible(false);
@@ -185,6 +203,23 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
         }
     }
 
+    /**
+     * Watches a multiplayer game in progress, the frames come like in a game without a bike to drive
+     * @return Whether a game in progress was found
+     * @throws RemoteException
+     */
+    @Override
+    public boolean spectateGame() throws RemoteException {
+        // End solo game if it was in progress
+        if(soloCore != null && soloCore.isGameInProgress()){
+            soloCore.endGame();
+        }
+        quitGame();
+        gameCount++;
+        goingSolo = false;
+        return clientID != null && server.spectateGame(clientID);
+    }
+
     /**
      * Leave the mutliplayer game / lobby
      * @throws RemoteException
@@ -203,6 +238,9 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
     @Override
     public void quitApp() throws RemoteException {
         quitGame();
+        if(udpInputSender != null) {
+            udpInputSender.close();
+        }
         if(clientID != null) {
             server.logOut(clientID);
         }
@@ -210,6 +248,7 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
 
     /**
      * Change the move direction of the player
+     * Never blocks, the turn is already predicted on the screen
      * @param newDirection The new direction
      * @throws RemoteException
      */
@@ -218,9 +257,20 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
         // If solo, act the solo way
         if(goingSolo && soloPlayer.isAlive()){
             soloPlayer.setcCarDir(newDirection);
-        } // If in a multiplayer game, contact the server
+        } // If in a multiplayer game, send it over the game channel if there is one
+        else if(udpInputSender != null) {
+            udpInputSender.send(newDirection, gGUI.getTurnTick());
+        } // Otherwise contact the server
         else if(clientID != null) {
-            server.setCurrentDirection(clientID, newDirection);
+            final long id = clientID;
+            final long tick = gGUI.getTurnTick();
+            inputExecutor.execute(() -> {
+                try {
+                    server.setCurrentDirection(id, newDirection, tick);
+                } catch (RemoteException e) {
+                    System.out.println("Client error: " + e.getMessage());
+                }
+            });
         }
     }
 
@@ -285,10 +335,14 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
     @Override
     public boolean logIn(String login, String pwd) throws RemoteException, AlreadyLoggedInException {
         // Attempt to log in
-        clientID = server.logIn(this,login, pwd);
-        boolean loggedIn = clientID != null;
+        SessionTicket ticket = server.logIn(this,login, pwd);
+        boolean loggedIn = ticket != null;
+        clientID = loggedIn ? ticket.getClientID() : null;
+        resumeToken = loggedIn ? ticket.getResumeToken() : 0;
         // If successful, close the login screen and open the game screen
         if(loggedIn){
+            clockSync.sync(server);
+            openGameChannel();
             guiLogin.setVisible(false);
             gGUI.setShowLoginGUI(login);
             gGUI.setLocation(guiLogin.getLocation());
@@ -298,6 +352,21 @@ public class RmiClient extends UnicastRemoteObject implements IClient, Serializa
         return loggedIn;
     }
 
+    /**
+     * Opens the UDP game channel if the server has one, the inputs go through the server stub otherwise
+     * @throws RemoteException
+     */
+    private void openGameChannel() throws RemoteException {
+        int port = server.getGameChannelPort();
+        if(port > 0){
+            try {
+                udpInputSender = new UdpInputSender(clientID, resumeToken, serverIP, port);
+            } catch (IOException e) {
+                System.out.println("Game channel unavailable: " + e.getMessage());
+            }
+        }
+    }
+
     @Override
     public void createAccountOrNot(boolean seccus) {
         guiLogin.confirSucess(seccus, login, pwd);
@@ -16,6 +16,7 @@ public class RmiClientMain {
     private static final String CALLBACK_NAME = "johanlutherbikes";
     private static final String DEFAULT_SERVER_IP = "localhost";
     private static final int DEFAULT_RMI_PORT = 1099;
+    private static final String NIO_TRANSPORT = "nio";
 
     //============
     //=== MAIN ===
@@ -23,7 +24,8 @@ public class RmiClientMain {
 
     /**
      * Launches the client
-     * @param args
+     * @param args Server IP, port, transport ("rmi" by default, or "nio" to use the NIO transport on the given port),
+     *             arena width, arena height & number of bikes per game (the default arena of the server if not given)
      */
     public static void main(String args[]) {
         // Sets some system properties
@@ -45,18 +47,33 @@ public class RmiClientMain {
                 RMIPortNum = Integer.parseInt(args[1]);
             }
 
+            ArenaConfig arena = null;
+            if(args.length >= 6){
+                arena = new ArenaConfig(Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+                System.out.println("Games played in a " + arena.getWidth() + "x" + arena.getHeight() + " arena with "
+                        + arena.getNbrOfPlayers() + " bikes");
+            }
+
             // Attempts to connect to the server with the given connection variables
             System.out.println("Attempts to connect to " + serverIP + " on port " + RMIPortNum);
             //String registryURL = "rmi://" + serverIP + ":" + RMIPortNum + "/" + CALLBACK_NAME;
 
-            // Find the remote server and cast it to an interface object
-            Registry registry = LocateRegistry.getRegistry(serverIP, RMIPortNum);
-            IServer h = (IServer) registry.lookup(CALLBACK_NAME);
-            //IServer h = (IServer) Naming.lookup(registryURL);
-            System.out.println("Lookup completed");
+            IServer h;
+            if(args.length >= 3 && NIO_TRANSPORT.equals(args[2])){
+                // Connect through the NIO transport
+                h = new NioServerProxy(serverIP, RMIPortNum);
+                System.out.println("Connected through NIO");
+            }
+            else {
+                // Find the remote server and cast it to an interface object
+                Registry registry = LocateRegistry.getRegistry(serverIP, RMIPortNum);
+                h = (IServer) registry.lookup(CALLBACK_NAME);
+                //IServer h = (IServer) Naming.lookup(registryURL);
+                System.out.println("Lookup completed");
+            }
 
             // Launch the rmi client
-            new RmiClient(h);
+            new RmiClient(h, serverIP, arena);
         }
         catch (Exception e) {
             System.out.println("Exception in Client: " + e.getMessage());
@@ -1,6 +1,18 @@
 import java.rmi.*;
 import java.rmi.server.*;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -15,6 +27,20 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
 
     // Hello service timer interval
     private static final int HELLO_INTERVAL = 3000;
+    // Time a client has to answer a hello
+    public static final int HELLO_TIMEOUT = 2000;
+    // A sweep of the idle clients that takes longer is reported
+    private static final int SLOW_SWEEP = HELLO_TIMEOUT / 2;
+    // Number of hellos sent at the same time, as many clients can hang without delaying the others
+    private static final int HELLO_THREADS = 256;
+    // Time a client that lost its connection has to resume its session
+    private static final int RESUME_GRACE = 30000;
+    // Number of threads relaying the frames to the spectators
+    private static final int SPECTATOR_THREADS = 2;
+    // Number of lobbies of a same arena open at the same time, each keeps its arena and its last game in memory
+    private static final int MAX_LOBBIES_PER_ARENA = 32;
+    // Interval between two flushes of the lobby changes
+    private static final int LOBBY_FLUSH_INTERVAL = 100;
     // Possible move directions
     private static final List possibleDirections = Arrays.asList('L', 'R', 'U', 'D');
 
@@ -22,6 +48,39 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
     private HashMap<String, Account> accountList;
     private HashMap<Long, ClientSession> clientList;
     private List<GameLobby> gameLobbyList;
+    // The lobbies that changed since the last flush
+    private final Set<GameLobby> changedLobbies = ConcurrentHashMap.newKeySet();
+    // Says hello to the idle clients, a client that hangs only holds up its own hello
+    private final ThreadPoolExecutor helloExecutor = new ThreadPoolExecutor(HELLO_THREADS, HELLO_THREADS,
+            HELLO_INTERVAL * 10, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "hello-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // The sessions being said hello, a session is never said hello twice at the same time
+    private final Set<ClientSession> helloedSessions = ConcurrentHashMap.newKeySet();
+    // Runs the fan-outs of the spectator relays, apart from the game tick threads
+    private final ExecutorService spectatorExecutor = Executors.newFixedThreadPool(SPECTATOR_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "spectator-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Plays the ticks of every game, on one loop thread per processor
+    private final GameLoopScheduler gameLoopScheduler = new GameLoopScheduler();
+    // The arena of the lobbies opened for the clients that don't ask for one, or ask for one that isn't allowed
+    private volatile ArenaConfig arena = ArenaConfig.DEFAULT;
+    // The other arenas the clients can ask for
+    private volatile Set<ArenaConfig> allowedArenas = Collections.emptySet();
+    // Generates the resume tokens
+    private final SecureRandom tokenGenerator = new SecureRandom();
+    // Delivers the callbacks queued in the client sessions
+    private final OutboundWriter outboundWriter = new OutboundWriter();
+    // UDP port of the game channel (-1 if disabled)
+    private int gameChannelPort = -1;
 
     //===================
     //=== CONSTRUCTOR ===
@@ -33,12 +92,16 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
      */
     public RmiServer() throws RemoteException {
         super();
+        // The hello threads only live while there are idle clients
+        helloExecutor.allowCoreThreadTimeOut(true);
         // Initialization
         accountList = new HashMap<>();
         clientList = new HashMap<>();
         gameLobbyList = new ArrayList<>();
         // Launches the hello service
         helloService();
+        // Launches the lobby flushes
+        lobbyFlushService();
     }
 
     //========================
@@ -47,33 +110,14 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
 
     /**
      * Checks every interval if the logged in users are still connected
+     * Only the idle users are said hello, the traffic of the others already shows they are there
      */
     private void helloService(){
         // Determine what the timer has to do
         TimerTask timerTask = new TimerTask() {
             @Override
             public void run() {
-                // Make a copy of the client list to avoid concurrency problems
-                List<ClientSession> clientSessions = new ArrayList<>(clientList.values());
-                // For each logged in client, say hello
-                for (ClientSession clientSession : clientSessions) {
-                    try {
-                        // Say hello
-                        clientSession.getClient().hello();
-                        // If that worked, the user is still there
-                        clientSession.resetConnectionFailures();
-                    } catch (RemoteException e) {
-                        // If not, report the incident
-                        System.out.println(clientSession.getAccount().getLogin() + " is unreachable");
-                        clientSession.incrementConnectionFailures();
-                        // If the user hasn't responded a few times in a row, he's probably dead
-                        if(clientSession.isDeclaredDead()){
-                            // Remove the user from the client list
-                            System.out.println(clientSession.getAccount().getLogin() + " is declared dead");
-                            removeClient(clientSession.getClientID());
-                        }
-                    }
-                }
+                sayHelloToIdleClients();
             }
         };
         // Running timer task as daemon thread
@@ -81,6 +125,207 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
         timer.scheduleAtFixedRate(timerTask, 0, HELLO_INTERVAL);
     }
 
+    /**
+     * Says hello to all the idle clients at the same time and waits for them at most HELLO_TIMEOUT
+     * A client that didn't answer by then counts as unreachable, and so does it at every sweep while its hello hangs
+     * The suspended clients are said hello too, and removed once their grace window is over
+     * The sweep is only reported when it was slow or found unreachable clients
+     */
+    private void sayHelloToIdleClients(){
+        long sweepStart = System.currentTimeMillis();
+        // Make a copy of the client list to avoid concurrency problems
+        List<ClientSession> clientSessions = new ArrayList<>(clientList.values());
+        List<ClientSession> idleSessions = new ArrayList<>();
+        int unreachable = 0;
+        for (ClientSession clientSession : clientSessions) {
+            // Didn't come back in time
+            if(clientSession.isResumeExpired(RESUME_GRACE)){
+                System.out.println(clientSession.getAccount().getLogin() + " didn't resume his session");
+                removeClient(clientSession.getClientID());
+            }
+            // Heard from or reached since the last check
+            else if(!clientSession.isSuspended() && !clientSession.isIdle(HELLO_INTERVAL)){
+                clientSession.resetConnectionFailures();
+            }
+            else if(helloedSessions.add(clientSession)){
+                idleSessions.add(clientSession);
+            }
+            // Still hanging in the hello of an earlier sweep
+            else {
+                helloFailed(clientSession);
+                unreachable++;
+            }
+        }
+        if(idleSessions.isEmpty() && unreachable == 0){
+            return;
+        }
+
+        // Say hello to each idle client
+        List<Future<Boolean>> hellos = new ArrayList<>();
+        for (ClientSession clientSession : idleSessions) {
+            hellos.add(helloExecutor.submit(() -> {
+                try {
+                    clientSession.getClient().hello();
+                    return true;
+                } catch (RemoteException e) {
+                    return false;
+                } finally {
+                    helloedSessions.remove(clientSession);
+                }
+            }));
+        }
+
+        // Wait for the answers until the deadline of the sweep
+        int notAnswering = 0;
+        for (int i = 0; i < idleSessions.size(); i++) {
+            ClientSession clientSession = idleSessions.get(i);
+            Future<Boolean> hello = hellos.get(i);
+            try {
+                long remaining = sweepStart + HELLO_TIMEOUT - System.currentTimeMillis();
+                if(hello.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS)){
+                    helloAnswered(clientSession);
+                }
+                else {
+                    helloFailed(clientSession);
+                    unreachable++;
+                }
+            } catch (TimeoutException e) {
+                cancelHello(clientSession, hello);
+                helloFailed(clientSession);
+                notAnswering++;
+            } catch (ExecutionException e) {
+                System.out.println("Exception in RmiServer while saying hello " + e.getCause());
+                helloFailed(clientSession);
+                unreachable++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        // Report the sweeps worth looking at
+        long sweepMillis = System.currentTimeMillis() - sweepStart;
+        if(unreachable > 0 || notAnswering > 0 || sweepMillis >= SLOW_SWEEP){
+            System.out.println("Said hello to " + idleSessions.size() + " idle clients in " + sweepMillis + "ms, "
+                    + unreachable + " unreachable, " + notAnswering + " not answering in time");
+        }
+    }
+
+    /**
+     * Gives up on a hello that didn't answer in time
+     * A hello that didn't start yet is dropped, one that hangs is interrupted and keeps its session out of the sweeps
+     * until it returns
+     * @param clientSession The client session said hello
+     * @param hello The hello
+     */
+    private void cancelHello(ClientSession clientSession, Future<Boolean> hello){
+        if(helloExecutor.remove((Runnable) hello)){
+            helloedSessions.remove(clientSession);
+        }
+        hello.cancel(true);
+    }
+
+    /**
+     * Records that a client answered a hello, a suspended client resumes its session
+     * @param clientSession The client session of the client
+     */
+    private void helloAnswered(ClientSession clientSession){
+        if(clientSession.isSuspended()){
+            resumeClient(clientSession, clientSession.getClient());
+        }
+        else {
+            clientSession.markSeen();
+            clientSession.resetConnectionFailures();
+        }
+    }
+
+    /**
+     * Records that a client didn't answer a hello, and suspends its session if it didn't answer a few times in a row
+     * @param clientSession The client session of the client
+     */
+    private void helloFailed(ClientSession clientSession){
+        clientSession.incrementConnectionFailures();
+        // If the user hasn't responded a few times in a row, he's probably gone
+        if(clientSession.isDeclaredDead() && !clientSession.isSuspended()){
+            // Keep his session for a while in case he comes back
+            System.out.println(clientSession.getAccount().getLogin() + " is declared dead");
+            suspendClient(clientSession);
+        }
+    }
+
+    /**
+     * Says hello to a client and waits for its answer at most HELLO_TIMEOUT
+     * @param client The client
+     * @throws RemoteException If the client didn't answer in time
+     */
+    private void sayHelloWithin(IClient client) throws RemoteException {
+        Future<?> hello = helloExecutor.submit(() -> {
+            client.hello();
+            return null;
+        });
+        try {
+            hello.get(HELLO_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            hello.cancel(true);
+            throw new RemoteException("No answer to the hello within " + HELLO_TIMEOUT + "ms");
+        } catch (ExecutionException e) {
+            throw new RemoteException("Hello failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while saying hello", e);
+        }
+    }
+
+    /**
+     * Flushes the lobby changes every interval
+     */
+    private void lobbyFlushService(){
+        TimerTask timerTask = new TimerTask() {
+            @Override
+            public void run() {
+                flushLobbyChanges();
+            }
+        };
+        // Running timer task as daemon thread
+        Timer timer = new Timer(true);
+        timer.scheduleAtFixedRate(timerTask, LOBBY_FLUSH_INTERVAL, LOBBY_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Records that a client was just heard from
+     * @param clientID The client ID of the client
+     */
+    private void markSeen(long clientID){
+        ClientSession clientSession = clientList.get(clientID);
+        if(clientSession != null){
+            clientSession.markSeen();
+        }
+    }
+
+    /**
+     * Suspends the session of a client that lost its connection, the client can resume it within the grace window
+     * @param clientSession The session of the client
+     */
+    private void suspendClient(ClientSession clientSession){
+        clientSession.suspend();
+        System.out.println(clientSession.getAccount().getLogin() + " is suspended, his session can be resumed for "
+                + RESUME_GRACE / 1000 + "s");
+    }
+
+    /**
+     * Resumes the session of a client, the client gets the state of his lobby and a keyframe of his game
+     * @param clientSession The session of the client
+     * @param client The stub of the client
+     */
+    private void resumeClient(ClientSession clientSession, IClient client){
+        clientSession.resume(client);
+        GameLobby gameLobby = clientSession.getGameLobby();
+        if(gameLobby != null){
+            lobbyChanged(gameLobby);
+        }
+        System.out.println(clientSession.getAccount().getLogin() + " resumed his session");
+    }
+
     /**
      * Removes a client from the list
      * @param clientID The client ID of the client to be removed
@@ -91,6 +336,8 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
             ClientSession client = clientList.get(clientID);
             // Indicate he isn't online anymore
             client.getAccount().setOnline(false);
+            // Drop what wasn't delivered to him
+            client.close();
             // Remove him from any ongoing game
             client.leaveGameLobby();
             System.out.println(client.getAccount().getLogin() + " logged out");
@@ -101,12 +348,84 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
         }
     }
 
+    /**
+     * Applies a direction input received on the game channel, unless it was already applied
+     * @param clientID The client ID of the player
+     * @param sequence The sequence number of the input
+     * @param tick The last tick seen by the client when the input was made
+     * @param newDirection The new moving direction
+     */
+    public void receiveInput(long clientID, int sequence, long tick, char newDirection){
+        ClientSession clientSession = clientList.get(clientID);
+        if(clientSession != null && clientSession.acceptInput(sequence)){
+            try {
+                setCurrentDirection(clientID, newDirection, tick);
+            } catch (RemoteException e) {
+                // Local call, can't happen
+                System.out.println("Exception in RmiServer " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the resume token of a session, the key of the datagrams of its game channel
+     * @param clientID The client ID of the session
+     * @return The resume token, or null if there is no such session
+     */
+    public Long getResumeToken(long clientID){
+        ClientSession clientSession = clientList.get(clientID);
+        return clientSession != null ? clientSession.getResumeToken() : null;
+    }
+
+    /**
+     * Sets what the game loops do when they wake up late and more than one tick is due
+     * @param overrunPolicy The overrun policy
+     */
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy){
+        gameLoopScheduler.setOverrunPolicy(overrunPolicy);
+    }
+
+    /**
+     * Sets the arena of the lobbies opened from now on for the clients that don't ask for one
+     * @param arena The default arena of the new lobbies
+     */
+    public void setArena(ArenaConfig arena){
+        this.arena = arena;
+    }
+
+    /**
+     * Sets the other arenas the clients can ask for, any other arena is replaced by the default one
+     * @param allowedArenas The arenas allowed besides the default one
+     */
+    public void setAllowedArenas(Collection<ArenaConfig> allowedArenas){
+        this.allowedArenas = new HashSet<>(allowedArenas);
+    }
+
+    /**
+     * Sets the UDP port of the game channel
+     * @param gameChannelPort The UDP port of the game channel (-1 if disabled)
+     */
+    public void setGameChannelPort(int gameChannelPort){
+        this.gameChannelPort = gameChannelPort;
+    }
+
+    /**
+     * Disconnects a client whose callbacks pile up, so he doesn't cost the server threads or memory
+     * @param clientSession The session of the slow client
+     */
+    private void disconnectSlowClient(ClientSession clientSession){
+        System.out.println(clientSession.getAccount().getLogin() + " is too slow, " +
+                clientSession.getOutboundBacklog() + " callbacks undelivered");
+        removeClient(clientSession.getClientID());
+    }
+
     /**
      * Returns a random long between LONG_MIN and LONG_MAX
+     * The IDs travel in clear on the game channel, they are drawn from the secure generator so they can't be guessed
      * @return A random long between LONG_MIN and LONG_MAX
      */
     private long getRandomID(){
-        return new Random().nextLong();
+        return tokenGenerator.nextLong();
     }
 
     //============================
@@ -114,67 +433,66 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
     //============================
 
     /**
-     * Tells the concerned clients to update their lobby player list
-     * @param clientIDs The list of clients to be updated
+     * Marks a lobby as changed, its players get the new state with the next flush
+     * @param gameLobby The lobby that changed
      */
     @Override
-    public void updateLobbyPlayerList(Collection<Long> clientIDs) {
-        // Turn id list to a login list
-        List<String> playerLogins = new ArrayList<>(4);
-        playerLogins.addAll(clientIDs.stream()
-                .filter(clientID -> clientList.containsKey(clientID))
-                .map(clientID -> clientList.get(clientID).getAccount().getLogin())
-                .collect(Collectors.toList()));
-
-        // Send the login list to the users
-        clientIDs.stream().filter(clientID -> clientList.containsKey(clientID)).forEach(clientID -> {
-            ClientSession clientSession = clientList.get(clientID);
-            try {
-                clientSession.getClient().updateLobbyPlayerList(playerLogins);
-            } catch (RemoteException e) {
-                System.out.println(clientSession.getAccount().getLogin() + " is unreachable");
-            }
-        });
+    public void lobbyChanged(GameLobby gameLobby) {
+        changedLobbies.add(gameLobby);
     }
 
     /**
-     * Tells the concerned clients to update their lobby countdown timer
-     * @param clientIDs The list of clients to be updated
-     * @param countDown The time left before the game starts
+     * Sends the state of every lobby that changed since the last flush, once per player
      */
-    @Override
-    public void updateLobbyTimer(Collection<Long> clientIDs, int countDown) {
-        // Send the current countdown to each users
-        List<Long> clientIDList = new ArrayList<>(clientIDs);
-        clientIDList.stream().filter(clientID -> clientList.containsKey(clientID)).forEach(clientID -> {
-            ClientSession clientSession = clientList.get(clientID);
-            try {
-                clientSession.getClient().updateLobbyTimer(countDown);
-            } catch (RemoteException e) {
-                System.out.println(clientSession.getAccount().getLogin() + " is unreachable");
-            }
-        });
+    private void flushLobbyChanges() {
+        for (Iterator<GameLobby> iterator = changedLobbies.iterator(); iterator.hasNext(); ) {
+            GameLobby gameLobby = iterator.next();
+            iterator.remove();
+
+            // Turn id list to a login list, once for the whole lobby
+            Collection<Long> clientIDs = gameLobby.getPlayerIDs();
+            List<String> playerLogins = clientIDs.stream()
+                    .filter(clientID -> clientList.containsKey(clientID))
+                    .map(clientID -> clientList.get(clientID).getAccount().getLogin())
+                    .collect(Collectors.toList());
+            LobbyEnvelope envelope = new LobbyEnvelope(playerLogins, gameLobby.getStartTime());
+
+            // Queue the envelope for the users
+            List<ClientSession> slowClients = new ArrayList<>();
+            clientIDs.stream().filter(clientID -> clientList.containsKey(clientID)).forEach(clientID -> {
+                ClientSession clientSession = clientList.get(clientID);
+                if(!clientSession.offer(client -> client.updateLobby(envelope))){
+                    slowClients.add(clientSession);
+                }
+            });
+            slowClients.forEach(this::disconnectSlowClient);
+        }
     }
 
     /**
      * Tells a client to update their game screen
+     * Only the cells written since the last tick acknowledged by the client are sent
+     * If the previous frame wasn't delivered yet, it is replaced by this one
      * @param clientID The client ID of the client that has to do the update
+     * @param playerNumber The number of the player in the game
      * @param score The current score of the player
-     * @param grid The current game grid
+     * @param core The core of the game
      * @param isGameOver Whether the game is over or not
      * @param winnerName The winner of the game
      */
     @Override
-    public void updatePlayer(long clientID, int score, int[][] grid, boolean isGameOver, String winnerName) {
+    public void updatePlayer(long clientID, int playerNumber, int score, Core core, boolean isGameOver, String winnerName) {
         // If the client is in the list
         if(clientList.containsKey(clientID)){
             ClientSession clientSession = clientList.get(clientID);
-            try{
-                // Send the update
-                clientSession.getClient().updateGame(score, grid, isGameOver, winnerName);
-            }
-            catch (Exception ex){
-                System.out.println(clientSession.getAccount().getLogin() + " is unreachable");
+            // Queue the update, the frame is built when it is delivered and the client's tick is remembered
+            // so that a frame covers all the ticks skipped for a slow client
+            boolean queued = clientSession.offerFrame(client -> {
+                GameFrame frame = core.getFrameSince(clientSession.getAckTick(), playerNumber);
+                clientSession.setAckTick(client.updateGame(playerNumber, score, frame, isGameOver, winnerName));
+            }, core.getCurrentTick(), isGameOver);
+            if(!queued){
+                disconnectSlowClient(clientSession);
             }
         }
     }
@@ -210,51 +528,107 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
      * @param client The client trying to log in
      * @param login The given login
      * @param password The given password
-     * @return Whether or not the user could successfully log in
+     * @return The ticket to resume the session, or null if the user couldn't log in
      * @throws RemoteException
      * @throws AlreadyLoggedInException
      */
     @Override
-    public synchronized Long logIn(IClient client, String login, String password)
+    public SessionTicket logIn(IClient client, String login, String password)
             throws RemoteException, AlreadyLoggedInException {
         // Trim the strings just to be sure
         String loginTrim = login.trim();
         String passTrim = password.trim();
-        // Check if the login and password match an account
-        Long id = null;
-        if (accountList.containsKey(loginTrim) && accountList.get(loginTrim).getPassword().equals(passTrim)) {
-            // If so, check if the user is not already logged in with another client
-            if(accountList.get(loginTrim).isOnline()){
-                // Get the logged in user
-                Optional<ClientSession> loggedUser =
-                        clientList.values().stream().findAny()
-                                .filter(cs -> cs.getAccount().getLogin().equals(loginTrim));
-                if(loggedUser.isPresent()){
-                    ClientSession clientSession = loggedUser.get();
-                    try{
-                        // Check if the other client is still responding
-                        clientSession.getClient().hello();
-                        // If so, let the user know that someone is already connected through another client
-                        throw new AlreadyLoggedInException(clientSession.getAccount().getLogin());
-                    }
-                    catch (RemoteException e) {
-                        // If not, log out the unresponding client
-                        logOut(clientSession.getClientID());
-                    }
+        // Check if the login and password match an account, and get the user already logged in with it if any
+        Optional<ClientSession> loggedUser;
+        synchronized (this){
+            if(!accountList.containsKey(loginTrim) || !accountList.get(loginTrim).getPassword().equals(passTrim)){
+                return null;
+            }
+            loggedUser = getLoggedUser(loginTrim);
+        }
+        // Check if the other client is still responding, without holding the server while waiting for it
+        IClient loggedClient = loggedUser.map(ClientSession::getClient).orElse(null);
+        if(loggedClient != null){
+            try{
+                sayHelloWithin(loggedClient);
+                // If so, let the user know that someone is already connected through another client
+                throw new AlreadyLoggedInException(loginTrim);
+            }
+            catch (RemoteException e) {
+                // If not, the unresponding client is logged out below
+            }
+        }
+
+        synchronized (this){
+            // The user may have logged in or resumed with another client while the old one was probed
+            Optional<ClientSession> stillLoggedUser = getLoggedUser(loginTrim);
+            if(stillLoggedUser.isPresent()){
+                ClientSession clientSession = stillLoggedUser.get();
+                if(clientSession.getClient() != loggedClient){
+                    throw new AlreadyLoggedInException(loginTrim);
                 }
+                // Log out the unresponding client
+                removeClient(clientSession.getClientID());
             }
 
             // Get a random ID for the logged in client
-            id = getRandomID();
+            long id = getRandomID();
             // Check if generated ID is already in use by chance
             while(clientList.containsKey(id)){
                 id = getRandomID();
             }
             // Add the client to the client list, log in was successfull
-            clientList.put(id, new ClientSession(client, id, accountList.get(login)));
-            System.out.println(login + " logged in");
+            SessionTicket ticket = new SessionTicket(id, tokenGenerator.nextLong());
+            clientList.put(id, new ClientSession(client, id, ticket.getResumeToken(), accountList.get(loginTrim), outboundWriter));
+            System.out.println(loginTrim + " logged in");
+            return ticket;
+        }
+    }
+
+    /**
+     * Returns the session of the user logged in with an account, if the account is online
+     * @param login The login of the account
+     * @return The session of the logged in user, if any
+     */
+    private Optional<ClientSession> getLoggedUser(String login){
+        if(!accountList.get(login).isOnline()){
+            return Optional.empty();
+        }
+        return clientList.values().stream()
+                .filter(cs -> cs.getAccount().getLogin().equals(login)).findAny();
+    }
+
+    /**
+     * Lets a client that lost its connection take his session back, with his lobby and his player
+     * @param client The stub of the client, which may have changed with the new connection
+     * @param clientID The client ID of the session
+     * @param resumeToken The resume token given at login
+     * @return The ticket of the resumed session, or null if the session is gone or the token is wrong
+     * @throws RemoteException
+     */
+    @Override
+    public synchronized SessionTicket resumeSession(IClient client, long clientID, long resumeToken) throws RemoteException {
+        ClientSession clientSession = clientList.get(clientID);
+        if(clientSession == null || clientSession.getResumeToken() != resumeToken){
+            return null;
+        }
+        resumeClient(clientSession, client);
+        return new SessionTicket(clientID, resumeToken);
+    }
+
+    /**
+     * Suspends the session of a client whose connection was lost, the client can resume it within the grace window
+     * Ignored if the session was already resumed with another stub
+     * @param client The stub whose connection was lost
+     * @param clientID The client ID of the session
+     * @throws RemoteException
+     */
+    @Override
+    public synchronized void suspendSession(IClient client, long clientID) throws RemoteException {
+        ClientSession clientSession = clientList.get(clientID);
+        if(clientSession != null && clientSession.getClient().equals(client)){
+            suspendClient(clientSession);
         }
-        return id;
     }
 
     /**
@@ -268,48 +642,126 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
     }
 
     /**
-     * Lets a client join a game lobby
+     * Lets a client join a game lobby of the arena it asks for
+     * An arena the server doesn't allow is replaced by the default one, and so is an arena whose lobbies are all full
+     * when there are MAX_LOBBIES_PER_ARENA of them already
      * @param clientID The client that wants to join a lobby
+     * @param arena The arena the client wants to play in (null for the default arena of the server)
      * @throws RemoteException
      */
     @Override
-    public synchronized void joinGame(long clientID) throws RemoteException {
+    public synchronized void joinGame(long clientID, ArenaConfig arena) throws RemoteException {
         GameLobby joinedGameLobby = null;
+        ArenaConfig joinedArena = arena != null && allowedArenas.contains(arena) ? arena : this.arena;
         // If the client is in the list
         if (clientList.containsKey(clientID)) {
             ClientSession client = clientList.get(clientID);
+            client.markSeen();
             // Leave your current lobby
             client.leaveGameLobby();
 
-            // Look for a lobby you can join
-            for (GameLobby gameLobby : gameLobbyList) {
-                if (gameLobby.join(clientID)) {
-                    joinedGameLobby = gameLobby;
-                    System.out.println(client.getAccount().getLogin() + " joined gameLobby " + gameLobby.getLobbyID());
-                    client.setGameLobby(joinedGameLobby);
-                    break;
+            // Look for a lobby of that arena you can join
+            joinedGameLobby = joinLobbyOf(client, joinedArena);
+            if (joinedGameLobby == null && countLobbiesOf(joinedArena) >= MAX_LOBBIES_PER_ARENA) {
+                if (joinedArena.equals(this.arena)) {
+                    System.out.println(client.getAccount().getLogin() + " can't join a game, the "
+                            + MAX_LOBBIES_PER_ARENA + " lobbies of the " + joinedArena + " arena are full");
+                    return;
+                }
+                // Fall back on the default arena
+                joinedArena = this.arena;
+                joinedGameLobby = joinLobbyOf(client, joinedArena);
+                if (joinedGameLobby == null && countLobbiesOf(joinedArena) >= MAX_LOBBIES_PER_ARENA) {
+                    System.out.println(client.getAccount().getLogin() + " can't join a game, every lobby is full");
+                    return;
                 }
-                System.out.println(client.getAccount().getLogin() + " can't join gameLobby " + gameLobby.getLobbyID());
             }
 
             // If none were found, create one
             if (joinedGameLobby == null) {
-                joinedGameLobby = new GameLobby(this, getRandomID());
+                joinedGameLobby = new GameLobby(this, getRandomID(), new SpectatorRelay(spectatorExecutor), gameLoopScheduler,
+                        joinedArena);
                 joinedGameLobby.join(clientID);
                 client.setGameLobby(joinedGameLobby);
                 gameLobbyList.add(joinedGameLobby);
-                System.out.println(client.getAccount().getLogin() + " joined session " + joinedGameLobby.getLobbyID());
+                System.out.println(client.getAccount().getLogin() + " joined session " + joinedGameLobby.getLobbyID()
+                        + " in a " + joinedArena + " arena");
+            }
+        }
+    }
+
+    /**
+     * Lets a client join an open lobby of an arena
+     * @param client The session of the client
+     * @param arena The arena of the lobby
+     * @return The lobby the client joined (null if none had room)
+     */
+    private GameLobby joinLobbyOf(ClientSession client, ArenaConfig arena){
+        for (GameLobby gameLobby : gameLobbyList) {
+            if (!gameLobby.getArena().equals(arena)) {
+                continue;
+            }
+            if (gameLobby.join(client.getClientID())) {
+                System.out.println(client.getAccount().getLogin() + " joined gameLobby " + gameLobby.getLobbyID());
+                client.setGameLobby(gameLobby);
+                return gameLobby;
+            }
+            System.out.println(client.getAccount().getLogin() + " can't join gameLobby " + gameLobby.getLobbyID());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of lobbies of an arena
+     * @param arena The arena
+     * @return The number of lobbies of the arena
+     */
+    private int countLobbiesOf(ArenaConfig arena){
+        int count = 0;
+        for (GameLobby gameLobby : gameLobbyList) {
+            if (gameLobby.getArena().equals(arena)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lets a client watch a game in progress as a spectator
+     * @param clientID The client that wants to watch a game
+     * @return Whether a game in progress was found
+     * @throws RemoteException
+     */
+    @Override
+    public synchronized boolean spectateGame(long clientID) throws RemoteException {
+        markSeen(clientID);
+        // If the client is in the list
+        if (clientList.containsKey(clientID)) {
+            ClientSession client = clientList.get(clientID);
+            // Leave your current lobby
+            client.leaveGameLobby();
+
+            // Look for a game to watch
+            for (GameLobby gameLobby : gameLobbyList) {
+                if (gameLobby.isGameInProgress()) {
+                    client.watchGameLobby(gameLobby);
+                    System.out.println(client.getAccount().getLogin() + " watches gameLobby " + gameLobby.getLobbyID()
+                            + " with " + gameLobby.getSpectatorRelay().getNbrOfSpectators() + " spectators");
+                    return true;
+                }
             }
         }
+        return false;
     }
 
     /**
-     * Lets a client leave his current lobby
+     * Lets a client leave his current lobby, or stop watching a game
      * @param clientID The client that wants to leave his current lobby
      * @throws RemoteException
      */
     @Override
     public void quitGame(long clientID) throws RemoteException {
+        markSeen(clientID);
         if(clientList.containsKey(clientID)){
             clientList.get(clientID).leaveGameLobby();
         }
@@ -319,16 +771,20 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
      * Changes the moving direction of a player
      * @param clientID The client ID of the player
      * @param newDirection The new moving direction
+     * @param tick The tick seen by the client when the input was made (-1 if unknown)
      * @throws RemoteException
      */
     @Override
-    public void setCurrentDirection(long clientID, char newDirection) throws RemoteException {
+    public void setCurrentDirection(long clientID, char newDirection, long tick) throws RemoteException {
+        markSeen(clientID);
         // Checks if client exists and if the direction char is one of the 4 possible directions
         if(clientList.containsKey(clientID) && possibleDirections.contains(newDirection)){
             // Get the lobby of the player
             GameLobby gameLobby = clientList.get(clientID).getGameLobby();
-            // Change his moving direction
-            gameLobby.setCurrentDirection(clientID, newDirection);
+            // Change his moving direction (inputs of the game channel may arrive after he left)
+            if(gameLobby != null){
+                gameLobby.setCurrentDirection(clientID, newDirection, tick);
+            }
         }
     }
 
@@ -340,13 +796,16 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
      */
     @Override
     public char getCurrentDirection(long clientID) throws RemoteException {
+        markSeen(clientID);
         char currentDirection = ' ';
         // Check if the client exists
         if(clientList.containsKey(clientID)){
             // Get his lobby
             GameLobby gameLobby = clientList.get(clientID).getGameLobby();
-            // Get his direction
-            currentDirection = gameLobby.getCurrentDirection(clientID);
+            // Get his direction, if he is in a lobby
+            if(gameLobby != null){
+                currentDirection = gameLobby.getCurrentDirection(clientID);
+            }
         }
         return currentDirection;
     }
@@ -359,6 +818,7 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
      */
     @Override
     public boolean isPlayerAlive(long clientID) throws RemoteException {
+        markSeen(clientID);
         boolean playerAlive = false;
         // Check if the client exists
         if(clientList.containsKey(clientID)){
@@ -370,4 +830,24 @@ public class RmiServer extends UnicastRemoteObject implements IServer, ILobbyMan
         return playerAlive;
     }
 
+    /**
+     * Returns the UDP port of the game channel, on which the clients should send their direction inputs
+     * @return The UDP port of the game channel (-1 if disabled)
+     * @throws RemoteException
+     */
+    @Override
+    public int getGameChannelPort() throws RemoteException {
+        return gameChannelPort;
+    }
+
+    /**
+     * Returns the server time, for the clients to synchronize their clock
+     * @return The server time, in ms
+     * @throws RemoteException
+     */
+    @Override
+    public long getServerTime() throws RemoteException {
+        return System.currentTimeMillis();
+    }
+
 }
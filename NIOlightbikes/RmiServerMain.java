@@ -3,6 +3,8 @@ import java.rmi.RemoteException;
 import java.rmi.registry.Registry;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -24,8 +26,11 @@ public class RmiServerMain {
     //===================
 
     /**
-     * Launches the RMI server
-     * @param args Server IP & RMI port
+     * Launches the RMI server, the NIO transport if a NIO port is given and the UDP game channel if a UDP port is given
+     * @param args Server IP, RMI port, NIO port (-1 to disable), UDP port (-1 to disable), overrun policy
+     *             of the game loops (CATCH_UP, SKIP or SLOW), arena width, arena height & number of bikes per game
+     *             for the clients that don't ask for an arena, and the other arenas the clients can ask for
+     *             (comma separated, like 200x200:8,500x500:16)
      */
     public static void main(String args[]) {
 
@@ -38,6 +43,28 @@ public class RmiServerMain {
         if(args.length >= 2){
             RMIPortNum = Integer.parseInt(args[1]);
         }
+        int nioPortNum = -1;
+        if(args.length >= 3){
+            nioPortNum = Integer.parseInt(args[2]);
+        }
+        int udpPortNum = -1;
+        if(args.length >= 4){
+            udpPortNum = Integer.parseInt(args[3]);
+        }
+        OverrunPolicy overrunPolicy = OverrunPolicy.CATCH_UP;
+        if(args.length >= 5){
+            overrunPolicy = OverrunPolicy.valueOf(args[4]);
+        }
+        ArenaConfig arena = ArenaConfig.DEFAULT;
+        if(args.length >= 8){
+            arena = new ArenaConfig(Integer.parseInt(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+        }
+        List<ArenaConfig> allowedArenas = new ArrayList<>();
+        if(args.length >= 9){
+            for(String allowedArena : args[8].split(",")){
+                allowedArenas.add(ArenaConfig.parse(allowedArena));
+            }
+        }
 
         // Set the server policy
         Properties props = System.getProperties();
@@ -57,7 +84,12 @@ public class RmiServerMain {
             //startRegistry(RMIPortNum);
             //RmiServer exportedObj = new RmiServer();
 
-            IServer stub = new RmiServer();
+            RmiServer stub = new RmiServer();
+            stub.setOverrunPolicy(overrunPolicy);
+            stub.setArena(arena);
+            stub.setAllowedArenas(allowedArenas);
+            System.out.println("Games played by default in a " + arena.getWidth() + "x" + arena.getHeight() + " arena with "
+                    + arena.getNbrOfPlayers() + " bikes" + (allowedArenas.isEmpty() ? "" : ", also in " + allowedArenas));
             //IServer stub = (IServer) UnicastRemoteObject.exportObject(server, 0);
             Registry registry;
             try {
@@ -72,6 +104,22 @@ public class RmiServerMain {
             }
             registry.rebind(CALLBACK_NAME, stub);
 
+            // Start the in-game channel, the lobby and account traffic stays on the reliable transports
+            if(udpPortNum > 0){
+                UdpGameChannel gameChannel = new UdpGameChannel(stub, udpPortNum);
+                gameChannel.start();
+                stub.setGameChannelPort(gameChannel.getPort());
+                System.out.println("UDP game channel listening on port " + udpPortNum);
+            }
+
+            // Start the NIO transport next to RMI, both serve the same server
+            if(nioPortNum > 0){
+                NioServer nioServer = new NioServer(stub, nioPortNum);
+                nioServer.start();
+                System.out.println("NIO transport listening on port " + nioPortNum + " with "
+                        + nioServer.getNbrOfEventLoops() + " event loops");
+            }
+
             // Rebind
             //registryURL = "rmi://" + serverIP + ":" + RMIPortNum + "/" + CALLBACK_NAME;
             //Naming.rebind(registryURL, exportedObj);
@@ -0,0 +1,55 @@
+import java.io.Serializable;
+
+/**
+ * What a client needs to resume its session: the client ID and the resume token issued at login.
+ * A client that lost its connection gets its session, its lobby and its player back by showing the ticket
+ * within the grace window, instead of logging in and queuing again.
+ * @author Johan & Luther
+ */
+public class SessionTicket implements Serializable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    static final long serialVersionUID = 201610180003L;
+
+    // The client ID given by the server
+    private final long clientID;
+    // The secret proving the client owns the session
+    private final long resumeToken;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a session ticket
+     * @param clientID The client ID given by the server
+     * @param resumeToken The secret proving the client owns the session
+     */
+    public SessionTicket(long clientID, long resumeToken){
+        this.clientID = clientID;
+        this.resumeToken = resumeToken;
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the client ID given by the server
+     * @return The client ID given by the server
+     */
+    public long getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Returns the secret proving the client owns the session
+     * @return The secret proving the client owns the session
+     */
+    public long getResumeToken() {
+        return resumeToken;
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Relays the frames of a game lobby to its spectators.
+ * The game tick thread only hands the core over, a relay thread then queues the frame of the tick to every spectator.
+ * The core encodes a frame once per tick acknowledged by the spectators and shares it with all the spectators
+ * that acknowledged the same tick, so hundreds of spectators cost the core a handful of encoded frames per tick.
+ * @author Johan & Luther
+ */
+public class SpectatorRelay {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // The shared threads running the fan-outs
+    private final Executor executor;
+    // The sessions watching the game
+    private final Set<ClientSession> spectators = ConcurrentHashMap.newKeySet();
+    // The core of the latest tick not relayed yet (null if none)
+    private final AtomicReference<Core> pendingCore = new AtomicReference<>();
+    // Whether a fan-out is scheduled, a relay runs one fan-out at a time
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a relay
+     * @param executor The shared threads running the fan-outs
+     */
+    public SpectatorRelay(Executor executor){
+        this.executor = executor;
+    }
+
+    //=======================
+    //=== RELAY FUNCTIONS ===
+    //=======================
+
+    /**
+     * Adds a spectator, he gets a keyframe with the next tick
+     * @param clientSession The session of the spectator
+     */
+    public void watch(ClientSession clientSession){
+        clientSession.setAckTick(-1);
+        spectators.add(clientSession);
+    }
+
+    /**
+     * Removes a spectator
+     * @param clientSession The session of the spectator
+     */
+    public void unwatch(ClientSession clientSession){
+        spectators.remove(clientSession);
+    }
+
+    /**
+     * Hands a completed tick over to the relay, never blocks
+     * Called by the game tick thread, a tick still waiting for its fan-out is replaced by the new one
+     * @param core The core that completed the tick
+     */
+    public void publish(Core core){
+        if(spectators.isEmpty()){
+            return;
+        }
+        pendingCore.set(core);
+        if(scheduled.compareAndSet(false, true)){
+            executor.execute(this::relay);
+        }
+    }
+
+    /**
+     * Fans out the pending ticks
+     */
+    private void relay(){
+        Core core;
+        while((core = pendingCore.getAndSet(null)) != null){
+            fanOut(core);
+        }
+        scheduled.set(false);
+        // A tick published in the meantime
+        if(pendingCore.get() != null && scheduled.compareAndSet(false, true)){
+            executor.execute(this::relay);
+        }
+    }
+
+    /**
+     * Queues the frame of the current tick of a core to every spectator
+     * A spectator that can't keep up stops watching
+     * @param core The core
+     */
+    private void fanOut(Core core){
+        boolean isGameOver = !core.isGameInProgress();
+        String winnerName = core.getsWinnerName();
+        long tick = core.getCurrentTick();
+        for(ClientSession spectator : spectators){
+            boolean queued = spectator.offerFrame(client -> {
+                GameFrame frame = core.getFrameSince(spectator.getAckTick());
+                spectator.setAckTick(client.updateGame(0, 0, frame, isGameOver, winnerName));
+            }, tick, isGameOver);
+            if(!queued){
+                System.out.println(spectator.getAccount().getLogin() + " can't keep up with the game, stops watching");
+                unwatch(spectator);
+                spectator.watchStopped(this);
+            }
+        }
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the number of spectators
+     * @return The number of spectators
+     */
+    public int getNbrOfSpectators(){
+        return spectators.size();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Counts how the game loops kept up with the ticks of the games: the ticks played, how late they were,
+ * and what was done each time a loop overran
+ * @author Johan & Luther
+ */
+public class TickMetrics {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    private long ticksPlayed = 0;
+    // Wake ups of the loop that found more than one tick due
+    private long overruns = 0;
+    // Late ticks played at once
+    private long ticksCaughtUp = 0;
+    // Frames not sent because a later one covered them (SKIP)
+    private long framesSkipped = 0;
+    // Ticks the game was pushed back by
+    private long ticksDelayed = 0;
+    // Lateness of the first due tick at each wake up, in ms
+    private long totalLateness = 0;
+    private long maxLateness = 0;
+    private long wakeUps = 0;
+
+    //========================
+    //=== RECORD FUNCTIONS ===
+    //========================
+
+    /**
+     * Records a wake up of the loop that found ticks due
+     * @param lateness How late the first due tick is, in ms
+     */
+    public synchronized void recordWakeUp(long lateness){
+        wakeUps++;
+        totalLateness += lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+    }
+
+    /**
+     * Records a played tick
+     */
+    public synchronized void recordTick(){
+        ticksPlayed++;
+    }
+
+    /**
+     * Records a wake up that found more than one tick due and the decision taken
+     * @param policy The policy applied
+     * @param caughtUpTicks The number of late ticks played at once, besides the current one
+     * @param delayedTicks The number of late ticks the game was pushed back by
+     */
+    public synchronized void recordOverrun(OverrunPolicy policy, long caughtUpTicks, long delayedTicks){
+        overruns++;
+        ticksCaughtUp += caughtUpTicks;
+        ticksDelayed += delayedTicks;
+        if(policy == OverrunPolicy.SKIP){
+            framesSkipped += caughtUpTicks;
+        }
+    }
+
+    /**
+     * Adds the metrics of a game to these ones
+     * @param other The metrics of the game
+     */
+    public synchronized void add(TickMetrics other){
+        synchronized (other){
+            ticksPlayed += other.ticksPlayed;
+            overruns += other.overruns;
+            ticksCaughtUp += other.ticksCaughtUp;
+            framesSkipped += other.framesSkipped;
+            ticksDelayed += other.ticksDelayed;
+            totalLateness += other.totalLateness;
+            maxLateness = Math.max(maxLateness, other.maxLateness);
+            wakeUps += other.wakeUps;
+        }
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the number of ticks played
+     * @return The number of ticks played
+     */
+    public synchronized long getTicksPlayed(){
+        return ticksPlayed;
+    }
+
+    /**
+     * Returns the number of wake ups that found more than one tick due
+     * @return The number of overruns
+     */
+    public synchronized long getOverruns(){
+        return overruns;
+    }
+
+    /**
+     * Returns the number of late ticks played at once
+     * @return The number of late ticks played at once
+     */
+    public synchronized long getTicksCaughtUp(){
+        return ticksCaughtUp;
+    }
+
+    /**
+     * Returns the number of frames not sent because a later one covered them
+     * @return The number of skipped frames
+     */
+    public synchronized long getFramesSkipped(){
+        return framesSkipped;
+    }
+
+    /**
+     * Returns the number of ticks the games were pushed back by
+     * @return The number of delayed ticks
+     */
+    public synchronized long getTicksDelayed(){
+        return ticksDelayed;
+    }
+
+    /**
+     * Returns the highest lateness of a tick
+     * @return The highest lateness, in ms
+     */
+    public synchronized long getMaxLateness(){
+        return maxLateness;
+    }
+
+    /**
+     * Returns the average lateness of the ticks at the wake ups of the loop
+     * @return The average lateness, in ms
+     */
+    public synchronized long getAverageLateness(){
+        return wakeUps == 0 ? 0 : totalLateness / wakeUps;
+    }
+
+    /**
+     * Returns a summary of the metrics, for the logs
+     * @return A summary of the metrics
+     */
+    @Override
+    public synchronized String toString(){
+        return ticksPlayed + " ticks, " + overruns + " overruns (" + ticksCaughtUp + " caught up, " + framesSkipped
+                + " frames skipped, " + ticksDelayed + " delayed), lateness avg " + getAverageLateness() + "ms max "
+                + maxLateness + "ms";
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * An axis-aligned piece of the trail of a bike, from the cell where the bike took a direction to the cell
+ * where it turned again or is now. A trail is a list of segments, one per direction change, so it grows
+ * with the number of turns rather than with the number of cells.
+ * A segment is immutable, the bike going on in the same direction replaces it by a longer one.
+ * @author Johan & Luther
+ */
+public class TrailSegment {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // The id of the player owning the segment
+    private final int player;
+    // The first cell of the segment
+    private final int x1;
+    private final int y1;
+    // The last cell of the segment, where the bike is or turned
+    private final int x2;
+    private final int y2;
+    // The direction the bike took along the segment
+    private final char direction;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Creates a segment
+     * @param player The id of the player owning the segment
+     * @param x1 The x position of the first cell
+     * @param y1 The y position of the first cell
+     * @param x2 The x position of the last cell
+     * @param y2 The y position of the last cell
+     * @param direction The direction the bike took along the segment
+     */
+    public TrailSegment(int player, int x1, int y1, int x2, int y2, char direction){
+        this.player = player;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.direction = direction;
+    }
+
+    //=========================
+    //=== SEGMENT FUNCTIONS ===
+    //=========================
+
+    /**
+     * Returns the segment extended to a new last cell, in the same direction
+     * @param x The x position of the new last cell
+     * @param y The y position of the new last cell
+     * @return The extended segment
+     */
+    public TrailSegment extendedTo(int x, int y){
+        return new TrailSegment(player, x1, y1, x, y, direction);
+    }
+
+    /**
+     * Returns whether a cell is part of the segment
+     * @param x The x position of the cell
+     * @param y The y position of the cell
+     * @return Whether the cell is part of the segment
+     */
+    public boolean contains(int x, int y){
+        return x >= getMinX() && x <= getMaxX() && y >= getMinY() && y <= getMaxY();
+    }
+
+    /**
+     * Returns whether a bike can go on along the segment, instead of starting a new one
+     * @param x The x position of the next cell of the bike
+     * @param y The y position of the next cell of the bike
+     * @param direction The direction of the bike
+     * @return Whether the cell follows the last cell of the segment in its direction
+     */
+    public boolean isContinuedBy(int x, int y, char direction){
+        return direction == this.direction && Math.abs(x - x2) + Math.abs(y - y2) == 1;
+    }
+
+    /**
+     * Returns the part of the segment inside a region of the grid
+     * @param x The x position of the region
+     * @param y The y position of the region
+     * @param width The width of the region
+     * @param height The height of the region
+     * @return The part of the segment inside the region, or null if the segment is out of it
+     */
+    public TrailSegment clippedTo(int x, int y, int width, int height){
+        if(getMaxX() < x || getMinX() >= x + width || getMaxY() < y || getMinY() >= y + height){
+            return null;
+        }
+        // The segment is a line, clamping its ends keeps the part inside
+        return new TrailSegment(player, clamp(x1, x, x + width - 1), clamp(y1, y, y + height - 1),
+                clamp(x2, x, x + width - 1), clamp(y2, y, y + height - 1), direction);
+    }
+
+    /**
+     * Returns a value clamped between two bounds
+     * @param value The value
+     * @param min The lower bound
+     * @param max The upper bound
+     * @return The clamped value
+     */
+    private static int clamp(int value, int min, int max){
+        return Math.max(min, Math.min(max, value));
+    }
+
+    //===============
+    //=== GETTERS ===
+    //===============
+
+    /**
+     * Returns the id of the player owning the segment
+     * @return The id of the player owning the segment
+     */
+    public int getPlayer(){
+        return player;
+    }
+
+    /**
+     * Returns the x position of the first cell
+     * @return The x position of the first cell
+     */
+    public int getX1(){
+        return x1;
+    }
+
+    /**
+     * Returns the y position of the first cell
+     * @return The y position of the first cell
+     */
+    public int getY1(){
+        return y1;
+    }
+
+    /**
+     * Returns the x position of the last cell
+     * @return The x position of the last cell
+     */
+    public int getX2(){
+        return x2;
+    }
+
+    /**
+     * Returns the y position of the last cell
+     * @return The y position of the last cell
+     */
+    public int getY2(){
+        return y2;
+    }
+
+    /**
+     * Returns the lowest x position of the segment
+     * @return The lowest x position of the segment
+     */
+    public int getMinX(){
+        return Math.min(x1, x2);
+    }
+
+    /**
+     * Returns the highest x position of the segment
+     * @return The highest x position of the segment
+     */
+    public int getMaxX(){
+        return Math.max(x1, x2);
+    }
+
+    /**
+     * Returns the lowest y position of the segment
+     * @return The lowest y position of the segment
+     */
+    public int getMinY(){
+        return Math.min(y1, y2);
+    }
+
+    /**
+     * Returns the highest y position of the segment
+     * @return The highest y position of the segment
+     */
+    public int getMaxY(){
+        return Math.max(y1, y2);
+    }
+
+    /**
+     * Returns the direction the bike took along the segment
+     * @return The direction the bike took along the segment
+     */
+    public char getDirection(){
+        return direction;
+    }
+}
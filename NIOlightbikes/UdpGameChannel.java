@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The in-game channel of the server, over UDP.
+ * Each datagram of a client carries its last direction inputs, so a lost datagram is covered by the next one
+ * and a turn never waits behind a retransmission. The lobby and account traffic stays on the reliable transport.
+ * Datagram: client ID (long), number of inputs (byte), then for each input, oldest first:
+ * sequence number (int), client tick (long) and direction (char), and last the authentication code of all that.
+ * The code is an HMAC keyed by the resume token of the session, which only the server and the client know,
+ * so a datagram that doesn't come from the client is dropped, whatever client ID it carries.
+ * @author Johan & Luther
+ */
+public class UdpGameChannel implements Runnable {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Number of inputs repeated in each datagram
+    public static final int REDUNDANT_INPUTS = 8;
+    // Authentication of the datagrams, the code is truncated to MAC_LENGTH bytes
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    public static final int MAC_LENGTH = 16;
+    // Size of a datagram carrying all the repeated inputs
+    public static final int MAX_DATAGRAM_SIZE = 8 + 1 + REDUNDANT_INPUTS * (4 + 8 + 2) + MAC_LENGTH;
+
+    private final RmiServer server;
+    private final DatagramChannel channel;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    // Only used by the receiving thread
+    private final Mac mac = newMac();
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Opens the game channel
+     * @param server The server receiving the inputs
+     * @param port The UDP port to listen on
+     * @throws IOException
+     */
+    public UdpGameChannel(RmiServer server, int port) throws IOException {
+        this.server = server;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+    }
+
+    //=========================
+    //=== CHANNEL FUNCTIONS ===
+    //=========================
+
+    /**
+     * Starts receiving the inputs
+     */
+    public void start(){
+        Thread thread = new Thread(this, "udp-game-channel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Receives the datagrams until the channel is closed
+     */
+    @Override
+    public void run(){
+        while(channel.isOpen()){
+            try {
+                receiveBuffer.clear();
+                channel.receive(receiveBuffer);
+                receiveBuffer.flip();
+                if(!isAuthentic(receiveBuffer)){
+                    // Forged, stale or from a client that isn't logged in, dropped without a word so it can't flood the log
+                    continue;
+                }
+                long clientID = receiveBuffer.getLong();
+                int count = Math.min(receiveBuffer.get() & 0xFF, REDUNDANT_INPUTS);
+                // The inputs come oldest first, the server drops the ones it already applied
+                for(int i = 0; i < count; i++){
+                    int sequence = receiveBuffer.getInt();
+                    long tick = receiveBuffer.getLong();
+                    char direction = receiveBuffer.getChar();
+                    server.receiveInput(clientID, sequence, tick, direction);
+                }
+            } catch (BufferUnderflowException e) {
+                System.out.println("UdpGameChannel received a truncated datagram");
+            } catch (IOException e) {
+                System.out.println("Exception in UdpGameChannel " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks the authentication code of a received datagram against the resume token of its session
+     * Leaves the datagram positioned on its client ID, with the code cut off
+     * @param datagram The received datagram
+     * @return Whether the datagram comes from the client of the session
+     */
+    private boolean isAuthentic(ByteBuffer datagram){
+        if(datagram.remaining() < 8 + 1 + MAC_LENGTH){
+            return false;
+        }
+        Long resumeToken = server.getResumeToken(datagram.getLong(0));
+        if(resumeToken == null){
+            return false;
+        }
+        int end = datagram.limit() - MAC_LENGTH;
+        byte[] received = new byte[MAC_LENGTH];
+        datagram.position(end);
+        datagram.get(received);
+        datagram.position(0);
+        datagram.limit(end);
+        return MessageDigest.isEqual(received, sign(mac, resumeToken, datagram.duplicate()));
+    }
+
+    /**
+     * Returns the authentication code of a datagram
+     * @param mac The MAC of the calling thread
+     * @param resumeToken The resume token of the session, the key of the code
+     * @param signed The bytes to authenticate, from the client ID to the last input
+     * @return The authentication code, MAC_LENGTH bytes long
+     */
+    static byte[] sign(Mac mac, long resumeToken, ByteBuffer signed){
+        try {
+            mac.init(new SecretKeySpec(ByteBuffer.allocate(8).putLong(resumeToken).array(), MAC_ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't key the datagram authentication", e);
+        }
+        mac.update(signed);
+        return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+    }
+
+    /**
+     * Creates a MAC for the datagram authentication, a MAC is used by one thread at a time
+     * @return The MAC
+     */
+    static Mac newMac(){
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " not available", e);
+        }
+    }
+
+    /**
+     * Returns the UDP port of the channel
+     * @return The UDP port of the channel
+     * @throws IOException
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+}
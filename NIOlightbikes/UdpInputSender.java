@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import javax.crypto.Mac;
+
+/**
+ * Sends the direction inputs of a client over the UDP game channel.
+ * Every datagram repeats the last inputs, and the last datagram is sent again for a few frames,
+ * so that losing a datagram doesn't lose a turn. The datagrams are signed with the resume token of the session.
+ * @author Johan & Luther
+ */
+public class UdpInputSender {
+
+    //=================
+    //=== VARIABLES ===
+    //=================
+
+    // Number of frames during which the last datagram is sent again
+    private static final int RESEND_FRAMES = 3;
+
+    private final long clientID;
+    private final long resumeToken;
+    private final Mac mac = UdpGameChannel.newMac();
+    private final DatagramChannel channel;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(UdpGameChannel.MAX_DATAGRAM_SIZE);
+
+    // The last inputs, as a ring
+    private final int[] sequences = new int[UdpGameChannel.REDUNDANT_INPUTS];
+    private final long[] ticks = new long[UdpGameChannel.REDUNDANT_INPUTS];
+    private final char[] directions = new char[UdpGameChannel.REDUNDANT_INPUTS];
+    private int nextSequence = 1;
+    private int resendsLeft = 0;
+
+    //===================
+    //=== CONSTRUCTOR ===
+    //===================
+
+    /**
+     * Opens the channel to the server
+     * @param clientID The client ID given by the server
+     * @param resumeToken The resume token given by the server, the key of the datagram signatures
+     * @param serverIP The IP of the server
+     * @param port The UDP port of the game channel
+     * @throws IOException
+     */
+    public UdpInputSender(long clientID, long resumeToken, String serverIP, int port) throws IOException {
+        this.clientID = clientID;
+        this.resumeToken = resumeToken;
+        this.channel = DatagramChannel.open();
+        this.channel.connect(new InetSocketAddress(serverIP, port));
+    }
+
+    //=======================
+    //=== INPUT FUNCTIONS ===
+    //=======================
+
+    /**
+     * Sends a new direction input, along with the previous ones
+     * @param direction The new direction
+     * @param tick The tick the input is meant for (-1 if unknown)
+     */
+    public synchronized void send(char direction, long tick){
+        int slot = nextSequence % UdpGameChannel.REDUNDANT_INPUTS;
+        sequences[slot] = nextSequence;
+        ticks[slot] = tick;
+        directions[slot] = direction;
+        nextSequence++;
+        resendsLeft = RESEND_FRAMES;
+        sendLastInputs();
+    }
+
+    /**
+     * Sends the last inputs again if the last one is recent
+     * Called on every received frame
+     */
+    public synchronized void resendRecent(){
+        if(resendsLeft > 0){
+            resendsLeft--;
+            sendLastInputs();
+        }
+    }
+
+    /**
+     * Sends a datagram with the last inputs, oldest first, and its signature
+     */
+    private void sendLastInputs(){
+        int count = Math.min(nextSequence - 1, UdpGameChannel.REDUNDANT_INPUTS);
+        sendBuffer.clear();
+        sendBuffer.putLong(clientID);
+        sendBuffer.put((byte) count);
+        for(int sequence = nextSequence - count; sequence < nextSequence; sequence++){
+            int slot = sequence % UdpGameChannel.REDUNDANT_INPUTS;
+            sendBuffer.putInt(sequences[slot]);
+            sendBuffer.putLong(ticks[slot]);
+            sendBuffer.putChar(directions[slot]);
+        }
+        ByteBuffer signed = sendBuffer.duplicate();
+        signed.flip();
+        sendBuffer.put(UdpGameChannel.sign(mac, resumeToken, signed));
+        sendBuffer.flip();
+        try {
+            channel.write(sendBuffer);
+        } catch (IOException e) {
+            // Lost like any datagram, the next one repeats the input
+            System.out.println("Client error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the channel
+     */
+    public void close(){
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Client error: " + e.getMessage());
+        }
+    }
+}